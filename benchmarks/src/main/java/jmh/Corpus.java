@@ -0,0 +1,212 @@
+package jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基准测试用的请求/响应语料，按真实客户端和本服务器实际发出的报文整理
+ */
+final class Corpus {
+    private Corpus() {
+    }
+
+    /**
+     * 请求报文
+     * browser: 浏览器打开页面（十几个头部）
+     * curl:    命令行工具（三个头部）
+     * form:    登录表单POST（带请求体）
+     */
+    static byte[] request(String kind) {
+        switch (kind) {
+            case "browser":
+                return ascii("GET /index.html?utm_source=newsletter&utm_medium=email HTTP/1.1\r\n" +
+                        "Host: localhost:8022\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n" +
+                        "sec-ch-ua-mobile: ?0\r\n" +
+                        "sec-ch-ua-platform: \"Windows\"\r\n" +
+                        "Upgrade-Insecure-Requests: 1\r\n" +
+                        "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 " +
+                        "(KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r\n" +
+                        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp," +
+                        "image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n" +
+                        "Sec-Fetch-Site: same-origin\r\n" +
+                        "Sec-Fetch-Mode: navigate\r\n" +
+                        "Sec-Fetch-User: ?1\r\n" +
+                        "Sec-Fetch-Dest: document\r\n" +
+                        "Referer: http://localhost:8022/login.html\r\n" +
+                        "Accept-Encoding: gzip, deflate, br, zstd\r\n" +
+                        "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n" +
+                        "Cookie: session=kHuhRYdDaCKfnctG2Xmf42of2WIyZGUdDUmKx-cLbmU; theme=dark\r\n" +
+                        "If-None-Match: \"5f3a-18c2b7d1e40\"\r\n" +
+                        "\r\n");
+            case "curl":
+                return ascii("GET /api/me HTTP/1.1\r\n" +
+                        "Host: localhost:8022\r\n" +
+                        "User-Agent: curl/8.5.0\r\n" +
+                        "Accept: */*\r\n" +
+                        "\r\n");
+            case "form":
+                String body = "username=alice.wang&password=s3cr3t%21%40%23&remember=on";
+                return ascii("POST /api/login HTTP/1.1\r\n" +
+                        "Host: localhost:8022\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "Content-Type: application/x-www-form-urlencoded\r\n" +
+                        "Origin: http://localhost:8022\r\n" +
+                        "Referer: http://localhost:8022/login.html\r\n" +
+                        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0\r\n" +
+                        "Accept: */*\r\n" +
+                        "Content-Length: " + body.length() + "\r\n" +
+                        "\r\n" + body);
+            default:
+                throw new IllegalArgumentException("Unknown request kind: " + kind);
+        }
+    }
+
+    /**
+     * 响应报文（客户端解析用）
+     * json:    API的小JSON响应
+     * html:    静态页面，带缓存相关头部
+     * chunked: 分块传输的流式响应
+     * gzip:    压缩过的页面
+     */
+    static byte[] response(String kind) {
+        switch (kind) {
+            case "json":
+                return join(ascii("HTTP/1.1 200 OK\r\n" +
+                        "Server: SimpleJavaHTTPServer/1.0\r\n" +
+                        "Date: Sat, 17 Oct 2026 08:00:00 GMT\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Content-Length: 86\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "Keep-Alive: timeout=5\r\n" +
+                        "\r\n"), ascii(pad("{\"message\": \"Login successful\", \"token\": \"", 84) + "\"}"));
+            case "html":
+                byte[] page = page();
+                return join(ascii("HTTP/1.1 200 OK\r\n" +
+                        "Server: SimpleJavaHTTPServer/1.0\r\n" +
+                        "Date: Sat, 17 Oct 2026 08:00:00 GMT\r\n" +
+                        "Content-Type: text/html; charset=utf-8\r\n" +
+                        "Content-Length: " + page.length + "\r\n" +
+                        "ETag: \"5f3a-18c2b7d1e40\"\r\n" +
+                        "Last-Modified: Thu, 15 Oct 2026 02:11:09 GMT\r\n" +
+                        "Accept-Ranges: bytes\r\n" +
+                        "Vary: Accept-Encoding\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "Keep-Alive: timeout=5\r\n" +
+                        "\r\n"), page);
+            case "chunked":
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] head = ascii("HTTP/1.1 200 OK\r\n" +
+                        "Server: SimpleJavaHTTPServer/1.0\r\n" +
+                        "Date: Sat, 17 Oct 2026 08:00:00 GMT\r\n" +
+                        "Content-Type: text/plain; charset=utf-8\r\n" +
+                        "Transfer-Encoding: chunked\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "\r\n");
+                out.write(head, 0, head.length);
+                byte[] data = page();
+                for (int offset = 0; offset < data.length; offset += 1024) {
+                    int length = Math.min(1024, data.length - offset);
+                    byte[] size = ascii(Integer.toHexString(length) + "\r\n");
+                    out.write(size, 0, size.length);
+                    out.write(data, offset, length);
+                    out.write('\r');
+                    out.write('\n');
+                }
+                byte[] last = ascii("0\r\n\r\n");
+                out.write(last, 0, last.length);
+                return out.toByteArray();
+            case "gzip":
+                byte[] compressed = gzip(page());
+                return join(ascii("HTTP/1.1 200 OK\r\n" +
+                        "Server: SimpleJavaHTTPServer/1.0\r\n" +
+                        "Date: Sat, 17 Oct 2026 08:00:00 GMT\r\n" +
+                        "Content-Type: text/html; charset=utf-8\r\n" +
+                        "Content-Encoding: gzip\r\n" +
+                        "Content-Length: " + compressed.length + "\r\n" +
+                        "Vary: Accept-Encoding\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "\r\n"), compressed);
+            default:
+                throw new IllegalArgumentException("Unknown response kind: " + kind);
+        }
+    }
+
+    /**
+     * 查询字符串：短参数、登录表单（含百分号编码）、带跟踪参数的长查询
+     */
+    static final String[] QUERY_STRINGS = {
+            "id=42",
+            "username=alice.wang&password=s3cr3t%21%40%23&remember=on",
+            "q=%E4%BD%A0%E5%A5%BD+world&page=3&size=20&sort=created_at%2Cdesc" +
+                    "&utm_source=newsletter&utm_medium=email&utm_campaign=spring_sale&fbclid=IwAR2xYz",
+    };
+
+    /**
+     * 请求路径：普通文件、带查询参数、多级目录、目录遍历攻击
+     */
+    static final String[] PATHS = {
+            "/index.html",
+            "/api/me?verbose=true",
+            "/static/css/themes/dark/main.min.css",
+            "/../../etc/passwd",
+            "images/logo.png",
+    };
+
+    /**
+     * 文件名：常见的静态资源类型和一个未知扩展名
+     */
+    static final String[] FILE_NAMES = {
+            "/index.html", "/style.css", "/app.bundle.js", "/data.json", "/logo.png", "/photo.JPG",
+            "/sample.txt", "/archive.tar.gz",
+    };
+
+    /**
+     * 约3KB的HTML页面，和webroot下的页面大小相近
+     */
+    private static byte[] page() {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"utf-8\">" +
+                "<title>Simple HTTP Server</title><link rel=\"stylesheet\" href=\"/style.css\"></head><body>\n");
+        for (int i = 0; html.length() < 3000; i++) {
+            html.append("<div class=\"test-section\"><h2>Section ").append(i)
+                    .append("</h2><ul><li><a href=\"/old-page\">301</a></li><li><a href=\"/temp\">302</a></li>")
+                    .append("<li><a href=\"/notfound\">404</a></li></ul></div>\n");
+        }
+        return ascii(html.append("</body></html>\n").toString());
+    }
+
+    private static String pad(String prefix, int length) {
+        StringBuilder value = new StringBuilder(prefix);
+        while (value.length() < length) {
+            value.append((char) ('a' + value.length() % 26));
+        }
+        return value.toString();
+    }
+
+    private static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] join(byte[] head, byte[] body) {
+        byte[] message = new byte[head.length + body.length];
+        System.arraycopy(head, 0, message, 0, head.length);
+        System.arraycopy(body, 0, message, head.length, body.length);
+        return message;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,63 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.HttpRequest;
+import server.HttpResponse;
+import server.ResponseBuilder;
+import shared.HttpConstants;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从静态文件缓存生成响应：普通请求、条件请求命中时的304、接受gzip时的压缩变体
+ * 静态文件来自 ./webroot，需要在项目根目录运行。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileResponseBenchmark {
+    private static final String PAGE = "/index.html";
+
+    private HttpRequest plain;
+    private HttpRequest conditional;
+    private HttpRequest gzip;
+
+    @Setup
+    public void setup() {
+        HttpResponse first = ResponseBuilder.buildFileResponse(PAGE, null);
+        if (first.getStatusCode() != HttpConstants.STATUS_OK) {
+            throw new IllegalStateException("Run from the project root so that ./webroot" + PAGE + " exists");
+        }
+        plain = new HttpRequest("GET", PAGE, "HTTP/1.1");
+        conditional = new HttpRequest("GET", PAGE, "HTTP/1.1");
+        conditional.setHeader("If-None-Match", first.getHeader("ETag"));
+        gzip = new HttpRequest("GET", PAGE, "HTTP/1.1");
+        gzip.setHeader("Accept-Encoding", "gzip, deflate, br");
+    }
+
+    @Benchmark
+    public HttpResponse buildFileResponse() {
+        return ResponseBuilder.buildFileResponse(PAGE, plain);
+    }
+
+    @Benchmark
+    public HttpResponse notModified() {
+        return ResponseBuilder.buildFileResponse(PAGE, conditional);
+    }
+
+    @Benchmark
+    public HttpResponse gzip() {
+        return ResponseBuilder.buildFileResponse(PAGE, gzip);
+    }
+}
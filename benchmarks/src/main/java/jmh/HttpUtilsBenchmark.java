@@ -0,0 +1,50 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import shared.HttpUtils;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求处理路径上的工具方法；每次操作处理一遍Corpus中的全部样本
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpUtilsBenchmark {
+    private final String[] queryStrings = Corpus.QUERY_STRINGS.clone();
+    private final String[] paths = Corpus.PATHS.clone();
+    private final String[] fileNames = Corpus.FILE_NAMES.clone();
+
+    @Benchmark
+    public void parseQueryString(Blackhole blackhole) {
+        for (String query : queryStrings) {
+            blackhole.consume(HttpUtils.parseQueryString(query));
+        }
+    }
+
+    @Benchmark
+    public void normalizePath(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(HttpUtils.normalizePath(path));
+        }
+    }
+
+    @Benchmark
+    public void getMimeType(Blackhole blackhole) {
+        for (String name : fileNames) {
+            blackhole.consume(HttpUtils.getMimeType(name));
+        }
+    }
+}
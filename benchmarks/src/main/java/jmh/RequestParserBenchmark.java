@@ -0,0 +1,76 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import server.HttpRequest;
+import server.RequestParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求解析：一个完整的请求从字节到可以路由的HttpRequest
+ * 解析器和请求对象在连接上复用，这里也复用，测的是稳定状态下每个请求的开销；
+ * 读取了路由和限流实际会用到的字段（头部是延迟解析的，不读就不会解析）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+    @Param({"browser", "curl", "form"})
+    private String kind;
+
+    private RequestParser parser;
+    private ByteBuffer buffer;
+    private ByteArrayInputStream stream;
+
+    @Setup
+    public void setup() {
+        byte[] request = Corpus.request(kind);
+        parser = new RequestParser();
+        buffer = ByteBuffer.wrap(request);
+        stream = new ByteArrayInputStream(request);
+    }
+
+    /**
+     * NIO模式：事件循环读到的数据追加进解析器
+     */
+    @Benchmark
+    public void parseBuffer(Blackhole blackhole) throws IOException {
+        buffer.clear();
+        consume(parser.parse(buffer), blackhole);
+    }
+
+    /**
+     * 阻塞模式：从socket输入流读取
+     */
+    @Benchmark
+    public void parseStream(Blackhole blackhole) throws IOException {
+        stream.reset();
+        consume(parser.parse(stream), blackhole);
+    }
+
+    private static void consume(HttpRequest request, Blackhole blackhole) {
+        blackhole.consume(request.getMethod());
+        blackhole.consume(request.getPath());
+        blackhole.consume(request.getHeader("Connection"));
+        blackhole.consume(request.getHeader("Cookie"));
+        if ("POST".equals(request.getMethod())) {
+            blackhole.consume(request.getBodyParams());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.HttpResponse;
+import server.ResponseBuilder;
+import server.ResponseWriter;
+import shared.HttpConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应序列化：把已经生成好的响应写到输出流（json、缓存中的静态页面、预先序列化的404）
+ * 静态文件来自 ./webroot，需要在项目根目录运行。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBuilderBenchmark {
+    private static final String PAGE = "/index.html";
+
+    @Param({"json", "file", "canned"})
+    private String kind;
+
+    private HttpResponse response;
+    private ResponseWriter writer;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "json":
+                response = ResponseBuilder.buildJsonResponse(HttpConstants.STATUS_OK,
+                        "{\"username\": \"alice.wang\", \"loggedIn\": true, \"expiresIn\": 1800}");
+                break;
+            case "file":
+                response = ResponseBuilder.buildFileResponse(PAGE, null);
+                if (response.getStatusCode() != HttpConstants.STATUS_OK) {
+                    throw new IllegalStateException("Run from the project root so that ./webroot" + PAGE + " exists");
+                }
+                break;
+            default:
+                // 没有修改过的错误响应，直接写出预先序列化好的字节；设置头部会退回普通序列化
+                response = ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_NOT_FOUND);
+        }
+        if (!kind.equals("canned")) {
+            response.setHeader("Connection", "keep-alive");
+        }
+        writer = new ResponseWriter();
+        out = new ByteArrayOutputStream(64 * 1024);
+    }
+
+    @Benchmark
+    public int build() throws IOException {
+        out.reset();
+        ResponseBuilder.build(response, out, null, writer, true);
+        return out.size();
+    }
+}
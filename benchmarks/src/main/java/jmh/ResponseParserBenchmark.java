@@ -0,0 +1,44 @@
+package jmh;
+
+import client.ResponseParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端响应解析；数据已经在内存里，直接从ByteArrayInputStream读取，不再套一层缓冲
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParserBenchmark {
+    @Param({"json", "html", "chunked", "gzip"})
+    private String kind;
+
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() {
+        in = new ByteArrayInputStream(Corpus.response(kind));
+    }
+
+    @Benchmark
+    public Object parse() throws IOException {
+        in.reset();
+        return ResponseParser.parse(in);
+    }
+}
@@ -5,7 +5,7 @@ echo "Building Simple HTTP Server..."
 mkdir -p build
 
 echo "Compiling Java sources..."
-javac -d build src/shared/*.java src/server/*.java src/client/*.java
+javac -encoding UTF-8 -d build src/shared/*.java src/server/*.java src/client/*.java src/bench/*.java
 
 if [ $? -eq 0 ]; then
     echo "Compilation successful!"
@@ -0,0 +1,93 @@
+package bench;
+
+import server.ConnectionTimer;
+import server.RequestParser;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接超时时间轮基准测试
+ * 在N个连接下测量：注册耗时、每个请求两次状态切换（处理中 -> 等待下一个请求）的耗时、
+ * 没有连接超时的tick的开销（和事件循环每轮扫描全部连接的做法对比），
+ * 以及全部连接一起超时时每个连接的清理耗时。
+ *
+ * 用法: java -Xmx2g -cp build bench.ConnectionTimerBenchmark [连接数=1000000]
+ */
+public class ConnectionTimerBenchmark {
+    private static final int CYCLES = 5_000_000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long tick = 100;
+        ConnectionTimer timer = new ConnectionTimer(tick, Integer.MAX_VALUE, false);
+        AtomicInteger closed = new AtomicInteger();
+        RequestParser idle = new RequestParser(); // 没有数据的解析器：等待下一个请求
+
+        long start = System.nanoTime();
+        List<ConnectionTimer.Timeout> timeouts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            timeouts.add(timer.register(closed::incrementAndGet));
+        }
+        System.out.printf("%d connections%n", count);
+        System.out.printf("register:        %10.1f ns%n", (double) (System.nanoTime() - start) / count);
+
+        for (int round = 0; round < 2; round++) { // 第一轮是预热
+            start = System.nanoTime();
+            for (int i = 0; i < CYCLES; i++) {
+                ConnectionTimer.Timeout timeout = timeouts.get((int) ((i * 2654435761L) % count));
+                timeout.busy();
+                timeout.awaitRequest(idle);
+            }
+            if (round > 0) {
+                System.out.printf("busy+idle:       %10.1f ns per request%n", (double) (System.nanoTime() - start) / CYCLES);
+            }
+        }
+
+        // 先处理到当前时间（截止时间被推后的条目在原来的桶到期时移到新位置，每个条目每个周期最多移动一次）
+        long now = System.currentTimeMillis();
+        start = System.nanoTime();
+        timer.expire(now);
+        System.out.printf("catch up:        %10.1f us%n", (System.nanoTime() - start) / 1e3);
+
+        // 没有连接到期的tick：只看一个桶
+        start = System.nanoTime();
+        int expired = 0;
+        for (int i = 1; i <= 20; i++) {
+            expired += timer.expire(now + i * tick);
+        }
+        System.out.printf("tick:            %10.1f us (expired %d)%n", (System.nanoTime() - start) / 20 / 1e3, expired);
+
+        // 旧做法：事件循环每轮遍历全部连接比较最后活动时间
+        Set<Connection> connections = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            connections.add(new Connection(now));
+        }
+        start = System.nanoTime();
+        int idleCount = 0;
+        for (Connection connection : connections) {
+            if (connection.lastActivity < now - 5000) {
+                idleCount++;
+            }
+        }
+        System.out.printf("full scan:       %10.1f us (%d idle)%n", (System.nanoTime() - start) / 1e3, idleCount);
+
+        // 全部超时
+        start = System.nanoTime();
+        expired = timer.expire(now + 60_000);
+        long expireNanos = System.nanoTime() - start;
+        System.out.printf("expire all:      %10.1f ns/connection (%d expired, %d callbacks)%n",
+                (double) expireNanos / Math.max(1, expired), expired, closed.get());
+        timer.shutdown();
+    }
+
+    private static final class Connection {
+        final long lastActivity;
+
+        Connection(long lastActivity) {
+            this.lastActivity = lastActivity;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package bench;
+
+import server.AdmissionControl;
+import server.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 洪泛攻击下的服务质量测试
+ * 一个“攻击者”从127.0.0.2发起：若干连接只连不发（占住连接/工作线程），若干线程在长连接上全速发请求；
+ * 一个正常客户端从127.0.0.1每隔一段时间请求一次，统计它的p50/p99延迟和失败次数。
+ * 三个阶段：没有攻击、有攻击且开启准入控制（每IP连接数上限+令牌桶限流）、有攻击但不做限制。
+ *
+ * 用法: java -cp build bench.FloodBenchmark [blocking|virtual|nio] [空闲连接数=200] [发送线程数=4]
+ *       [每IP连接上限=8] [每IP每秒请求数=200]
+ */
+public class FloodBenchmark {
+    private static final int BASE_PORT = 18180;
+    private static final long RUN_MILLIS = 5000;
+    private static final long THINK_MILLIS = 20;   // 正常客户端两次请求之间的间隔
+    private static final int SO_TIMEOUT = 3000;
+    private static final String ATTACKER = "127.0.0.2";
+    private static final String CLIENT = "127.0.0.1";
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" +
+            "Host: localhost\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        HttpServer.Mode mode = HttpServer.Mode.parse(args.length > 0 ? args[0] : "blocking");
+        int idle = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int perIp = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        double rate = args.length > 4 ? Double.parseDouble(args[4]) : 200;
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // 屏蔽服务器的逐请求输出
+
+        report.printf("mode %s, attacker: %d idle connections + %d senders%n", mode, idle, senders);
+        report.printf("%-12s %10s %10s %10s %8s %14s %14s%n", "phase", "requests", "p50(ms)", "p99(ms)",
+                "errors", "flood ok/s", "flood 429+503/s");
+        int port = BASE_PORT;
+        String[] phases = {"no flood", "admission", "unlimited"};
+        for (String phase : phases) {
+            AdmissionControl admission = phase.equals("admission")
+                    ? new AdmissionControl(Integer.MAX_VALUE, perIp, rate, (int) rate / 4)
+                    : new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0);
+            HttpServer server = new HttpServer(mode, port, admission);
+            Thread serverThread = new Thread(server::start, "bench-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            KeepAliveBenchmark.waitForServer(port);
+
+            Flood flood = phase.equals("no flood") ? null : new Flood(port, idle, senders);
+            if (flood != null) {
+                flood.start();
+                Thread.sleep(500); // 让攻击先占满连接
+            }
+            Result result = measure(port);
+            if (flood != null) {
+                flood.stop();
+            }
+            report.printf("%-12s %10d %10.2f %10.2f %8d %14.0f %14.0f%n", phase, result.latencies.length,
+                    result.percentile(0.50), result.percentile(0.99), result.errors,
+                    flood == null ? 0.0 : flood.ok.get() * 1000.0 / RUN_MILLIS,
+                    flood == null ? 0.0 : flood.rejected.get() * 1000.0 / RUN_MILLIS);
+            server.stop();
+            port++;
+        }
+    }
+
+    /**
+     * 正常客户端：一个长连接，每隔THINK_MILLIS请求一次；非200、超时和连接错误都算失败，失败后重连
+     */
+    private static Result measure(int port) {
+        List<Long> latencies = new ArrayList<>();
+        int errors = 0;
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        Socket socket = null;
+        InputStream in = null;
+        while (System.currentTimeMillis() < deadline) {
+            long start = System.nanoTime();
+            try {
+                if (socket == null) {
+                    socket = connect(CLIENT, port);
+                    in = new BufferedInputStream(socket.getInputStream());
+                }
+                socket.getOutputStream().write(REQUEST);
+                Response response = readResponse(in);
+                if (response.status != 200) {
+                    errors++;
+                } else {
+                    latencies.add(System.nanoTime() - start);
+                }
+                if (response.close) {
+                    closeQuietly(socket);
+                    socket = null;
+                }
+            } catch (IOException e) {
+                errors++;
+                closeQuietly(socket);
+                socket = null;
+            }
+            try {
+                Thread.sleep(THINK_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        closeQuietly(socket);
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return new Result(sorted, errors);
+    }
+
+    private static Socket connect(String localAddress, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.bind(new InetSocketAddress(localAddress, 0));
+        socket.connect(new InetSocketAddress(CLIENT, port), SO_TIMEOUT);
+        socket.setSoTimeout(SO_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // 忽略关闭错误
+            }
+        }
+    }
+
+    /**
+     * 读取一个响应，返回状态码和服务器是否要求关闭连接
+     */
+    private static Response readResponse(InputStream in) throws IOException {
+        int status = -1;
+        int contentLength = 0;
+        boolean close = false;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection closed");
+            }
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            String header = line.toString(StandardCharsets.ISO_8859_1).trim();
+            line.reset();
+            if (header.isEmpty()) {
+                break;
+            }
+            if (status < 0) {
+                status = Integer.parseInt(header.substring(9, 12));
+            } else if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(header.substring(15).trim());
+            } else if (header.equalsIgnoreCase("Connection: close")) {
+                close = true;
+            }
+        }
+        in.readNBytes(contentLength);
+        return new Response(status, close);
+    }
+
+    /**
+     * 攻击者：idle个只连不发的连接（断开后立即重连）+ senders个全速发送请求的线程
+     */
+    private static class Flood {
+        final int port;
+        final int idle;
+        final int senders;
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final List<Thread> threads = new ArrayList<>();
+        volatile boolean running = true;
+
+        Flood(int port, int idle, int senders) {
+            this.port = port;
+            this.idle = idle;
+            this.senders = senders;
+        }
+
+        void start() {
+            Thread holder = new Thread(this::holdIdle, "flood-idle");
+            holder.setDaemon(true);
+            threads.add(holder);
+            holder.start();
+            for (int i = 0; i < senders; i++) {
+                Thread sender = new Thread(this::send, "flood-sender-" + i);
+                sender.setDaemon(true);
+                threads.add(sender);
+                sender.start();
+            }
+        }
+
+        /**
+         * 保持idle个打开的空闲连接（非阻塞通道，便于发现被服务器关闭的连接），关闭的连接立即重新打开
+         */
+        private void holdIdle() {
+            SocketChannel[] channels = new SocketChannel[idle];
+            ByteBuffer scratch = ByteBuffer.allocate(1024);
+            while (running) {
+                for (int i = 0; i < idle && running; i++) {
+                    try {
+                        if (channels[i] != null) {
+                            scratch.clear();
+                            int n = channels[i].read(scratch);
+                            if (n == 0) {
+                                continue; // 仍然打开
+                            }
+                            if (n > 0) {
+                                rejected.incrementAndGet(); // 收到429/503
+                            }
+                            channels[i].close();
+                        }
+                        SocketChannel channel = SocketChannel.open();
+                        channels[i] = channel;
+                        channel.bind(new InetSocketAddress(ATTACKER, 0));
+                        channel.connect(new InetSocketAddress(CLIENT, port));
+                        channel.configureBlocking(false);
+                    } catch (IOException e) {
+                        closeQuietly(channels[i]);
+                        channels[i] = null;
+                    }
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            for (SocketChannel channel : channels) {
+                closeQuietly(channel);
+            }
+        }
+
+        private void send() {
+            Socket socket = null;
+            InputStream in = null;
+            while (running) {
+                try {
+                    if (socket == null) {
+                        socket = connect(ATTACKER, port);
+                        in = new BufferedInputStream(socket.getInputStream());
+                    }
+                    socket.getOutputStream().write(REQUEST);
+                    Response response = readResponse(in);
+                    if (response.status == 200) {
+                        ok.incrementAndGet();
+                    } else {
+                        rejected.incrementAndGet();
+                    }
+                    if (response.close) {
+                        closeQuietly(socket);
+                        socket = null;
+                    }
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    socket = null;
+                }
+            }
+            closeQuietly(socket);
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            for (Thread thread : threads) {
+                thread.join(SO_TIMEOUT + 1000);
+            }
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final boolean close;
+
+        Response(int status, boolean close) {
+            this.status = status;
+            this.close = close;
+        }
+    }
+
+    private static class Result {
+        final long[] latencies;
+        final int errors;
+
+        Result(long[] latencies, int errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package bench;
+
+import server.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发长连接基准测试
+ * 对比不同连接处理模式在N个同时在线的keep-alive连接下的p99延迟，
+ * 找出延迟开始恶化时的连接数。
+ *
+ * 用法: java -cp build bench.KeepAliveBenchmark [blocking,virtual,nio] [10,50,100,200,500,1000]
+ */
+public class KeepAliveBenchmark {
+    private static final int BASE_PORT = 18080;
+    private static final long RUN_MILLIS = 3000;
+    private static final long THINK_MILLIS = 50;   // 每个连接两次请求之间的间隔
+    private static final int SO_TIMEOUT = 10000;
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" +
+            "Host: localhost\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "blocking,virtual,nio").split(",");
+        int[] counts = Arrays.stream((args.length > 1 ? args[1] : "10,50,100,200,500,1000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // 屏蔽服务器的逐请求输出
+
+        int port = BASE_PORT;
+        for (String modeName : modes) {
+            HttpServer.Mode mode = HttpServer.Mode.parse(modeName);
+            HttpServer server = new HttpServer(mode, port);
+            Thread serverThread = new Thread(server::start, "bench-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            waitForServer(port);
+
+            report.println("== mode " + mode + " ==");
+            report.printf("%8s %10s %10s %10s %10s %8s%n", "conns", "requests", "p50(ms)", "p99(ms)", "max(ms)", "errors");
+            double baselineP99 = -1;
+            for (int connections : counts) {
+                Result result = run(port, connections);
+                double p99 = result.percentile(0.99);
+                report.printf("%8d %10d %10.2f %10.2f %10.2f %8d%n", connections, result.latencies.length,
+                        result.percentile(0.50), p99, result.percentile(1.0), result.errors);
+                if (baselineP99 < 0) {
+                    baselineP99 = p99;
+                } else if (result.errors > 0 || p99 > Math.max(10 * baselineP99, 50)) {
+                    report.println("p99 degraded at " + connections + " concurrent keep-alive connections");
+                    break;
+                }
+            }
+            server.stop();
+            port++;
+        }
+    }
+
+    /**
+     * 打开N个长连接，每个连接循环发送请求直到测试时间结束
+     */
+    private static Result run(int port, int connections) throws InterruptedException {
+        List<long[]> perConnection = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(connections);
+        CountDownLatch done = new CountDownLatch(connections);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS + 1000; // 额外1秒用于建立连接
+
+        for (int i = 0; i < connections; i++) {
+            long[] samples = new long[(int) (RUN_MILLIS / THINK_MILLIS) + 16];
+            perConnection.add(samples);
+            Thread thread = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setSoTimeout(SO_TIMEOUT);
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    ready.countDown();
+                    ready.await();
+                    int n = 0;
+                    while (System.currentTimeMillis() < deadline && n < samples.length - 1) {
+                        long start = System.nanoTime();
+                        out.write(REQUEST);
+                        out.flush();
+                        readResponse(in);
+                        samples[++n] = System.nanoTime() - start;
+                        Thread.sleep(THINK_MILLIS);
+                    }
+                    samples[0] = n;
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    ready.countDown();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        done.await();
+
+        int total = 0;
+        for (long[] samples : perConnection) {
+            total += (int) samples[0];
+        }
+        long[] latencies = new long[total];
+        int index = 0;
+        for (long[] samples : perConnection) {
+            int n = (int) samples[0];
+            System.arraycopy(samples, 1, latencies, index, n);
+            index += n;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, errors.get());
+    }
+
+    /**
+     * 读取一个响应（状态行+头部+Content-Length长度的响应体）
+     */
+    static void readResponse(InputStream in) throws IOException {
+        int contentLength = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection closed");
+            }
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            String header = line.toString(StandardCharsets.ISO_8859_1).trim();
+            line.reset();
+            if (header.isEmpty()) {
+                break;
+            }
+            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(header.substring(15).trim());
+            }
+        }
+        long skipped = 0;
+        while (skipped < contentLength) {
+            long n = in.skip(contentLength - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("connection closed");
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+    }
+
+    static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("server did not start on port " + port);
+    }
+
+    private static class Result {
+        final long[] latencies;
+        final int errors;
+
+        Result(long[] latencies, int errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1_000_000.0;
+        }
+    }
+}
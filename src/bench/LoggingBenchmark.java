@@ -0,0 +1,108 @@
+package bench;
+
+import server.AsyncLogger;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 日志开销基准测试
+ * 模拟工作线程处理请求（每个请求一小段计算），对比三种做法的吞吐量：
+ * println：和原来的处理路径一样，每个请求6次System.out.println（同步的PrintStream，每行flush一次）；
+ * async：每个请求一行访问日志，调试信息因为级别关闭直接丢弃，由后台线程成批写文件；
+ * none：不写日志，作为上限。
+ *
+ * 用法: java -cp build bench.LoggingBenchmark [线程数=1,4,16] [每个请求的计算量=5000]
+ */
+public class LoggingBenchmark {
+    private static final long RUN_MILLIS = 2000;
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = Arrays.stream((args.length > 0 ? args[0] : "1,4,16").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int work = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        Path dir = Files.createTempDirectory("logbench");
+        Path printlnFile = dir.resolve("println.log");
+        PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(printlnFile.toFile())), true);
+        AsyncLogger logger = new AsyncLogger(dir.resolve("async.log"), 16384, AsyncLogger.Level.INFO, true,
+                256L * 1024 * 1024, 1);
+        InetAddress client = InetAddress.getLoopbackAddress();
+
+        measure(1, work, console, logger, client); // 预热
+        System.out.printf("%8s %14s %14s %14s %10s%n", "threads", "println req/s", "async req/s", "none req/s",
+                "dropped");
+        for (int threads : threadCounts) {
+            long droppedBefore = logger.getDropped();
+            double[] result = measure(threads, work, console, logger, client);
+            System.out.printf("%8d %14.0f %14.0f %14.0f %10d%n", threads, result[0], result[1], result[2],
+                    logger.getDropped() - droppedBefore);
+        }
+        logger.shutdown();
+        console.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static double[] measure(int threads, int work, PrintStream console, AsyncLogger logger,
+                                    InetAddress client) throws InterruptedException {
+        double println = run(threads, work, n -> {
+            console.println("等待下一个请求... 当前请求数: " + n + "，客户端: 127.0.0.1");
+            console.println("处理第 " + n + " 个请求，方法: GET，路径: /index.html，客户端: 127.0.0.1");
+            console.println("HTTP/1.1请求，保持连接");
+            console.println("等待下一个请求... 当前请求数: " + n + "，客户端: 127.0.0.1");
+            console.println("不再保持连接，准备关闭。客户端: 127.0.0.1");
+            console.println("Socket已关闭");
+        });
+        double async = run(threads, work, n -> {
+            long start = System.nanoTime();
+            logger.log(AsyncLogger.Level.DEBUG, "HTTP/1.1请求，保持连接"); // 级别关闭，直接返回
+            logger.access(client, "GET", "/index.html", "HTTP/1.1", 200, 3010, System.nanoTime() - start);
+        });
+        logger.flush(5000);
+        double none = run(threads, work, n -> { });
+        return new double[] {println, async, none};
+    }
+
+    private interface RequestLog {
+        void log(long requestNumber);
+    }
+
+    /**
+     * N个线程循环处理请求直到时间结束，返回每秒请求数
+     */
+    private static double run(int threads, int work, RequestLog log) throws InterruptedException {
+        LongAdder requests = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                long n = 0;
+                long local = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    for (int i = 0; i < work; i++) { // 模拟处理请求的计算
+                        local = local * 6364136223846793005L + 1442695040888963407L;
+                    }
+                    log.log(++n);
+                }
+                sink += local;
+                requests.add(n);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return requests.sum() * 1e9 / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import server.AdmissionControl;
+import server.ConnectionTimer;
+import server.HttpRequest;
+import server.HttpResponse;
+import server.Metrics;
+import shared.HttpConstants;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 指标记录开销基准测试
+ * N个线程不停地记录请求（按路由的耗时直方图+状态码计数+收发字节数），测量每个请求的记录耗时，
+ * 同时给出只调用两次System.nanoTime()（基准里一次、recordRequest里一次）的耗时作为对照，
+ * 真实请求路径上开始时间本来就要取（访问日志也用），两者之差才是指标本身的开销。
+ * 最后输出一次 /metrics 的生成耗时和分位数，确认记录下来的分布正确。
+ *
+ * 用法: java -cp build bench.MetricsBenchmark [线程数=1,4] [每个线程的请求数=20000000]
+ */
+public class MetricsBenchmark {
+    private static final String[] PATHS = {"/index.html", "/api/me", "/api/login", "/style.css"};
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = Arrays.stream((args.length > 0 ? args[0] : "1,4").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long perThread = args.length > 1 ? Long.parseLong(args[1]) : 20_000_000L;
+
+        AdmissionControl admission = new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0);
+        ConnectionTimer timer = new ConnectionTimer(100, 1, false);
+        HttpRequest[] requests = new HttpRequest[PATHS.length];
+        for (int i = 0; i < PATHS.length; i++) {
+            requests[i] = new HttpRequest("GET", PATHS[i], "HTTP/1.1"); // 手动构造的请求没有路由，记在unrouted下
+        }
+        HttpResponse[] responses = {new HttpResponse(HttpConstants.STATUS_OK),
+                new HttpResponse(HttpConstants.STATUS_NOT_FOUND)};
+
+        run(new Metrics(admission, timer), 1, perThread / 4, requests, responses); // 预热
+        System.out.printf("%8s %14s %14s %14s%n", "threads", "ns/request", "clock only", "metrics");
+        Metrics metrics = null;
+        for (int threads : threadCounts) {
+            metrics = new Metrics(admission, timer);
+            double nanos = run(metrics, threads, perThread, requests, responses);
+            double clock = run(null, threads, perThread, requests, responses);
+            System.out.printf("%8d %14.1f %14.1f %14.1f%n", threads, nanos, clock, nanos - clock);
+        }
+
+        long start = System.nanoTime();
+        String text = metrics.render();
+        System.out.printf("render: %.1f us, %d bytes%n", (System.nanoTime() - start) / 1e3, text.length());
+        text.lines().filter(line -> line.startsWith("http_request_duration_seconds{"))
+                .forEach(System.out::println);
+        admission.shutdown();
+        timer.shutdown();
+    }
+
+    /**
+     * 返回每个请求的平均记录耗时：墙钟时间乘以实际并行的CPU数，再除以总请求数；metrics为null时只读时钟
+     */
+    private static double run(Metrics metrics, int threads, long perThread, HttpRequest[] requests,
+                              HttpResponse[] responses) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (long i = 0; i < perThread; i++) {
+                    // 起始时间往前推，让耗时落在1us~1ms之间的不同桶里
+                    long started = System.nanoTime() - ((i * 2654435761L) & 0xFFFFF);
+                    if (metrics == null) {
+                        sink += System.nanoTime() - started;
+                        continue;
+                    }
+                    metrics.recordRequest(requests[(int) (i & 3)], responses[(int) (i >>> 6) & 1], started);
+                    metrics.addBytesIn(80);
+                    metrics.addBytesOut(3010);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        int parallel = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        return (double) (System.nanoTime() - start) * parallel / (perThread * threads);
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import server.HttpServer;
+import shared.HttpConstants;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HTTP/1.1流水线吞吐量测试
+ * 在一个连接上一次写出N个GET请求，再按顺序读回N个响应，比较不同流水线深度下每秒完成的请求数。
+ * 深度1即普通的“一问一答”长连接，作为基准。
+ *
+ * 用法: java -cp build bench.PipeliningBenchmark [blocking,virtual,nio] [1,10,25,50,100]
+ */
+public class PipeliningBenchmark {
+    private static final int BASE_PORT = 18100;
+    private static final long RUN_MILLIS = 3000;
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" +
+            "Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "blocking,virtual,nio").split(",");
+        int[] depths = Arrays.stream((args.length > 1 ? args[1] : "1,10,25,50,100").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // 屏蔽服务器的逐请求输出
+
+        int port = BASE_PORT;
+        for (String modeName : modes) {
+            HttpServer.Mode mode = HttpServer.Mode.parse(modeName);
+            HttpServer server = new HttpServer(mode, port);
+            Thread serverThread = new Thread(server::start, "bench-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            KeepAliveBenchmark.waitForServer(port);
+
+            report.println("== mode " + mode + " ==");
+            report.printf("%8s %12s %12s %10s%n", "depth", "requests", "req/s", "speedup");
+            run(port, 1, 500); // 预热
+            double baseline = -1;
+            for (int depth : depths) {
+                long start = System.nanoTime();
+                long requests = run(port, depth, RUN_MILLIS);
+                double perSecond = requests / ((System.nanoTime() - start) / 1e9);
+                if (baseline < 0) {
+                    baseline = perSecond;
+                }
+                report.printf("%8d %12d %12.0f %9.2fx%n", depth, requests, perSecond, perSecond / baseline);
+            }
+            server.stop();
+            port++;
+        }
+    }
+
+    /**
+     * 持续按给定深度发送流水线请求，返回完成的请求数
+     * 服务器每个连接最多处理MAX_REQUESTS_PER_CONNECTION个请求，用完后重新连接
+     */
+    private static long run(int port, int depth, long millis) throws Exception {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (int i = 0; i < depth; i++) {
+            batch.write(REQUEST);
+        }
+        byte[] requests = batch.toByteArray();
+        int batchesPerConnection = Math.max(1, HttpConstants.MAX_REQUESTS_PER_CONNECTION / depth);
+
+        long completed = 0;
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(10000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                for (int b = 0; b < batchesPerConnection && System.currentTimeMillis() < deadline; b++) {
+                    out.write(requests); // 所有请求一次写出
+                    out.flush();
+                    for (int i = 0; i < depth; i++) {
+                        KeepAliveBenchmark.readResponse(in);
+                    }
+                    completed += depth;
+                }
+            }
+        }
+        return completed;
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import server.HttpResponse;
+import server.ResponseBuilder;
+import server.ResponseWriter;
+import shared.HttpConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 响应序列化微基准
+ * 对比原来的StringBuilder + new Date().toString() + getBytes()写法和ResponseWriter，
+ * 统计每个响应的耗时和当前线程分配的字节数（稳定状态下ResponseWriter应为0）。
+ * 最后一行是预先序列化好的404响应（CannedResponse）。
+ * 测试对象是缓存中的 /index.html 响应，需要在项目根目录运行。
+ *
+ * 用法: java -cp build bench.ResponseWriterBenchmark [次数=2000000]
+ */
+public class ResponseWriterBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        OutputStream sink = OutputStream.nullOutputStream();
+
+        HttpResponse response = ResponseBuilder.buildFileResponse("/index.html");
+        response.setHeader("Connection", "keep-alive");
+        response.setHeader("Keep-Alive", "timeout=" + HttpConstants.KEEP_ALIVE_TIMEOUT / 1000);
+        ResponseWriter writer = new ResponseWriter();
+        Map<String, String> headers = response.getHeaders();
+        byte[] body = response.getBody();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ResponseBuilder.build(response, encoded, null, writer, true);
+        System.out.printf("response: %d header bytes + %d body bytes, %d iterations%n",
+                encoded.size() - body.length, body.length, iterations);
+        System.out.printf("%-16s %10s %12s%n", "writer", "ns/op", "bytes/op");
+
+        Runnable legacy = () -> {
+            try {
+                legacyBuild(headers, body, sink);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        Runnable pooled = () -> {
+            try {
+                ResponseBuilder.build(response, sink, null, writer, true);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        HttpResponse notFound = ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_NOT_FOUND);
+        Runnable canned = () -> {
+            try {
+                ResponseBuilder.build(notFound, sink, null, writer, true);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        for (int round = 0; round < 2; round++) { // 第一轮是预热
+            measure("StringBuilder", legacy, iterations, round > 0);
+            measure("ResponseWriter", pooled, iterations, round > 0);
+            measure("Canned 404", canned, iterations, round > 0);
+        }
+    }
+
+    private static void measure(String name, Runnable task, int iterations, boolean print) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (print) {
+            System.out.printf("%-16s %10.1f %12.1f%n", name, (double) elapsed / iterations, (double) allocated / iterations);
+        }
+    }
+
+    /**
+     * 原ResponseBuilder.build的序列化方式
+     */
+    private static void legacyBuild(Map<String, String> headers, byte[] body, OutputStream out) throws IOException {
+        StringBuilder headerBuilder = new StringBuilder();
+        headerBuilder.append(HttpConstants.HTTP_VERSION)
+                .append(" ")
+                .append(HttpConstants.STATUS_OK)
+                .append(" ")
+                .append(HttpConstants.STATUS_MESSAGES.get(HttpConstants.STATUS_OK))
+                .append(HttpConstants.CRLF);
+        headerBuilder.append("Server: ").append(ResponseWriter.SERVER_NAME).append(HttpConstants.CRLF);
+        headerBuilder.append("Date: ").append(new Date().toString()).append(HttpConstants.CRLF);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            headerBuilder.append(header.getKey())
+                    .append(": ")
+                    .append(header.getValue())
+                    .append(HttpConstants.CRLF);
+        }
+        headerBuilder.append(HttpConstants.CRLF);
+        out.write(headerBuilder.toString().getBytes(HttpConstants.DEFAULT_CHARSET));
+        out.write(body);
+        out.flush();
+    }
+}
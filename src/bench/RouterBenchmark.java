@@ -0,0 +1,100 @@
+package bench;
+
+import server.Router;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 路由分发基准测试
+ * 注册N个固定路由、N/10个带参数的路由和一个前缀路由，测量不同类型请求的单次匹配耗时，
+ * 并和原来逐个equals比较的if/else链对比。路由数增加时Router的耗时应基本不变。
+ *
+ * 用法: java -cp build bench.RouterBenchmark [10,100,500,1000,5000]
+ */
+public class RouterBenchmark {
+    private static final int LOOKUPS = 2_000_000;
+
+    public static void main(String[] args) {
+        String[] sizes = (args.length > 0 ? args[0] : "10,100,500,1000,5000").split(",");
+        System.out.printf("%8s %12s %12s %12s %12s %14s%n",
+                "routes", "exact(ns)", "param(ns)", "prefix(ns)", "miss(ns)", "if-chain(ns)");
+        for (int round = 0; round < 2; round++) { // 第一轮是预热
+            for (String size : sizes) {
+                run(Integer.parseInt(size), round > 0);
+            }
+        }
+    }
+
+    private static void run(int routes, boolean print) {
+        Router router = new Router();
+        List<String> chain = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            String path = "/api/resource" + i;
+            router.get(path, request -> null);
+            chain.add(path);
+        }
+        for (int i = 0; i < Math.max(1, routes / 10); i++) {
+            router.get("/users" + i + "/{id}/orders/{order}", request -> null);
+        }
+        router.get("/static/*", request -> null);
+
+        Random random = new Random(42);
+        String[] exactPaths = new String[1024];
+        String[] paramPaths = new String[1024];
+        for (int i = 0; i < exactPaths.length; i++) {
+            exactPaths[i] = "/api/resource" + random.nextInt(routes);
+            paramPaths[i] = "/users" + random.nextInt(Math.max(1, routes / 10)) + "/" + random.nextInt(100000)
+                    + "/orders/" + random.nextInt(1000);
+        }
+        String[] prefixPaths = {"/static/css/site.css", "/static/js/app.js", "/static/img/logo.png"};
+        String[] missPaths = {"/index.html", "/no/such/page", "/api/unknown"};
+
+        double exact = measure(router, exactPaths);
+        double param = measure(router, paramPaths);
+        double prefix = measure(router, prefixPaths);
+        double miss = measure(router, missPaths);
+        double ifChain = measureChain(chain, exactPaths);
+        if (print) {
+            System.out.printf("%8d %12.1f %12.1f %12.1f %12.1f %14.1f%n", router.size(), exact, param, prefix, miss, ifChain);
+        }
+    }
+
+    private static double measure(Router router, String[] paths) {
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (router.match("GET", paths[i % paths.length]) != null) {
+                matched++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (matched < 0) {
+            System.out.println(matched); // 防止循环被优化掉
+        }
+        return (double) elapsed / LOOKUPS;
+    }
+
+    /**
+     * 原来的写法：按顺序逐个equals比较
+     */
+    private static double measureChain(List<String> chain, String[] paths) {
+        int matched = 0;
+        long start = System.nanoTime();
+        int lookups = LOOKUPS / 10;
+        for (int i = 0; i < lookups; i++) {
+            String path = paths[i & 1023];
+            for (String candidate : chain) {
+                if (candidate.equals(path)) {
+                    matched++;
+                    break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (matched < 0) {
+            System.out.println(matched);
+        }
+        return (double) elapsed / lookups;
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import server.SessionStore;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 会话存储基准测试
+ * 在N个存活会话下测量：多线程创建会话的吞吐量、校验命中/未命中的单次耗时、每个会话的堆内存，
+ * 以及时间轮过期的开销：没有会话到期的tick只处理一个空桶，和每次扫描全部会话的做法对比；
+ * 注销一部分会话（同一秒内创建的会话都在同一个桶里，测的是从大桶里删除的代价），
+ * 最后让全部会话一次到期，统计每个会话的清理耗时。
+ *
+ * 用法: java -Xmx4g -cp build bench.SessionStoreBenchmark [会话数=2000000] [线程数=8]
+ */
+public class SessionStoreBenchmark {
+    private static final int VALIDATIONS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long ttl = 30 * 60 * 1000L;
+        long tick = 1000;
+
+        long heapBefore = usedHeap();
+        SessionStore store = new SessionStore(ttl, tick, false);
+        String[] tokens = new String[count];
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            new Thread(() -> {
+                for (int i = first; i < count; i += threads) {
+                    tokens[i] = store.create("user" + i);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long createNanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore - (long) count * 4; // 不算tokens数组本身
+        System.out.printf("%d live sessions, %d threads%n", store.size(), threads);
+        System.out.printf("create:          %10.0f sessions/s%n", count * 1e9 / createNanos);
+        System.out.printf("heap per session: %9.1f bytes (token/username strings included)%n", (double) heap / count);
+
+        String[] probes = new String[4096];
+        String[] misses = new String[4096];
+        SessionStore other = new SessionStore(ttl, tick, false);
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = tokens[(int) ((i * 2654435761L) % count)];
+            misses[i] = other.create("nobody"); // 格式正确但不存在的令牌
+        }
+        for (int round = 0; round < 2; round++) { // 第一轮是预热
+            double hit = measureValidate(store, probes);
+            double miss = measureValidate(store, misses);
+            if (round > 0) {
+                System.out.printf("validate hit:    %10.1f ns%n", hit);
+                System.out.printf("validate miss:   %10.1f ns%n", miss);
+            }
+        }
+
+        // 没有会话到期的tick：时间轮只看一个桶
+        long now = System.currentTimeMillis();
+        start = System.nanoTime();
+        int expired = 0;
+        for (int i = 1; i <= 60; i++) {
+            expired += store.expire(now + i * tick);
+        }
+        double tickMicros = (System.nanoTime() - start) / 60 / 1e3;
+        System.out.printf("idle tick:       %10.1f us (expired %d)%n", tickMicros, expired);
+        start = System.nanoTime();
+        int live = 0;
+        long cutoff = now + 60 * tick;
+        for (String token : tokens) { // 扫描全部会话的做法：每个tick都要看一遍
+            if (store.validate(token) != null || cutoff < 0) {
+                live++;
+            }
+        }
+        System.out.printf("full scan:       %10.1f us (%d sessions)%n", (System.nanoTime() - start) / 1e3, live);
+
+        // 注销：每16个会话注销一个
+        start = System.nanoTime();
+        int invalidated = 0;
+        for (int i = 0; i < count; i += 16) {
+            if (store.invalidate(tokens[i])) {
+                invalidated++;
+            }
+        }
+        System.out.printf("invalidate:      %10.1f ns (%d sessions)%n",
+                (double) (System.nanoTime() - start) / Math.max(1, invalidated), invalidated);
+
+        // 全部到期
+        start = System.nanoTime();
+        expired = store.expire(now + ttl + 2 * tick);
+        long expireNanos = System.nanoTime() - start;
+        System.out.printf("expire all:      %10.1f ns/session (%d expired, %d left)%n",
+                (double) expireNanos / Math.max(1, expired), expired, store.size());
+        store.shutdown();
+        other.shutdown();
+    }
+
+    private static double measureValidate(SessionStore store, String[] tokens) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < VALIDATIONS; i++) {
+            if (store.validate(tokens[i & 4095]) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found < 0) {
+            System.out.println(found);
+        }
+        return (double) elapsed / VALIDATIONS;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
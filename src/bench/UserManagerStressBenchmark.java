@@ -0,0 +1,138 @@
+package bench;
+
+import server.PasswordHasher;
+import server.UserManager;
+import server.UserTable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UserManager并发压力测试
+ * 注册阶段：每个用户名由两个线程同时注册，检查恰好一个成功、用户数没有丢失；
+ * 登录阶段：所有线程反复登录（一半密码错误），检查结果全部正确。
+ * 输出每个阶段的吞吐量、p50/p99延迟和因哈希线程池已满被拒绝（对应503）的次数。
+ *
+ * 用法: java -cp build bench.UserManagerStressBenchmark [并发线程=32] [用户数=2000] [PBKDF2迭代=10000] [哈希线程=4] [队列=64] [用户表=map|offheap]
+ */
+public class UserManagerStressBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int hashThreads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int queue = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        String table = args.length > 5 ? args[5] : "map";
+
+        UserManager manager = new UserManager(UserTable.create(table), new PasswordHasher(iterations),
+                hashThreads, queue, null);
+        int initialUsers = manager.getUserCount();
+        System.out.printf("threads=%d users=%d iterations=%d hashThreads=%d queue=%d table=%s%n",
+                threads, users, iterations, hashThreads, queue, table);
+        System.out.printf("%-10s %8s %12s %10s %10s %10s%n", "phase", "ops", "ops/s", "p50(ms)", "p99(ms)", "rejected");
+
+        // 每个用户名被注册两次，第二次来自另一个线程
+        Set<Integer> registered = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        Result register = run("register", threads, users * 2, i -> {
+            int user = i / 2;
+            if (manager.registerUser("user" + user, "password" + user) && !registered.add(user)) {
+                duplicates.incrementAndGet();
+            }
+        });
+        register.print();
+
+        AtomicInteger wrong = new AtomicInteger();
+        Result login = run("login", threads, users * 2, i -> {
+            int user = i % users;
+            boolean correct = (i & 1) == 0;
+            boolean ok = manager.loginUser("user" + user, correct ? "password" + user : "wrong" + user);
+            if (ok != (correct && registered.contains(user))) {
+                wrong.incrementAndGet();
+            }
+        });
+        login.print();
+        manager.shutdown();
+
+        // 每次被拒绝的注册最多让一个用户名两次都没有成功
+        boolean consistent = duplicates.get() == 0
+                && registered.size() == manager.getUserCount() - initialUsers
+                && registered.size() >= users - register.rejected
+                && wrong.get() == 0;
+        System.out.printf("registered=%d duplicates=%d userCount=%d wrongLoginResults=%d -> %s%n", registered.size(),
+                duplicates.get(), manager.getUserCount(), wrong.get(), consistent ? "OK" : "INCONSISTENT");
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(String name, int threads, int ops, Operation operation) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        long[] latencies = new long[ops];
+        Arrays.fill(latencies, -1);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    int i;
+                    while ((i = next.getAndIncrement()) < ops) {
+                        long begin = System.nanoTime();
+                        try {
+                            operation.run(i);
+                            latencies[i] = System.nanoTime() - begin;
+                        } catch (RejectedExecutionException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long[] completed = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+        return new Result(name, completed, rejected.get(), elapsed);
+    }
+
+    private interface Operation {
+        void run(int index);
+    }
+
+    private static final class Result {
+        final String name;
+        final long[] latencies;
+        final int rejected;
+        final long elapsedNanos;
+
+        Result(String name, long[] latencies, int rejected, long elapsedNanos) {
+            this.name = name;
+            this.latencies = latencies;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void print() {
+            System.out.printf("%-10s %8d %12.0f %10.2f %10.2f %10d%n", name, latencies.length,
+                    latencies.length * 1e9 / elapsedNanos, percentile(0.50), percentile(0.99), rejected);
+        }
+
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.ceil(p * latencies.length) - 1)] / 1e6;
+        }
+    }
+}
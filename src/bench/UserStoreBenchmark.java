@@ -0,0 +1,163 @@
+package bench;
+
+import server.MapUserTable;
+import server.UserStore;
+import server.UserStore.FsyncPolicy;
+import server.UserTable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 用户数据预写日志基准测试
+ * 1. 每种fsync策略在不同并发注册线程数下的追加吞吐量，以及平均每批记录数、每次fsync覆盖的记录数
+ *    （always + 1个线程即每条记录一次fsync，没有组提交）；
+ * 2. N个用户写成快照、再追加一段日志后，重新打开时的恢复耗时；
+ * 3. 快照连续失败、期间又多次切换日志时，已确认的注册在重新打开后都能恢复。
+ * 数据写在临时目录（默认系统临时目录，可以用第四个参数指定放在要测的磁盘上），结束后删除。
+ *
+ * 用法: java -cp build bench.UserStoreBenchmark [线程数=1,8,32,128] [每组记录数=20000] [恢复测试用户数=1000000] [目录]
+ */
+public class UserStoreBenchmark {
+    // 和PasswordHasher生成的凭据长度相同
+    private static final String CREDENTIAL = "pbkdf2-sha256$120000$" + "s".repeat(22) + "$" + "h".repeat(43);
+
+    public static void main(String[] args) throws Exception {
+        String[] threadCounts = (args.length > 0 ? args[0] : "1,8,32,128").split(",");
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int recoveryUsers = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        Path base = args.length > 3 ? Path.of(args[3]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("%-9s %8s %12s %10s %12s %10s%n", "policy", "threads", "appends/s", "batches", "rec/batch", "fsyncs");
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            for (String threads : threadCounts) {
+                throughput(base, policy, Integer.parseInt(threads), records);
+            }
+        }
+        recovery(base, recoveryUsers);
+        compactionFailure(base);
+    }
+
+    private static void throughput(Path base, FsyncPolicy policy, int threads, int records) throws Exception {
+        Path dir = Files.createTempDirectory(base, "userstore");
+        try {
+            UserStore store = new UserStore(dir, policy, 1000, Long.MAX_VALUE, new MapUserTable());
+            store.open();
+            AtomicInteger next = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < records) {
+                            store.append("user" + i, CREDENTIAL);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            store.close();
+            System.out.printf("%-9s %8d %12.0f %10d %12.1f %10d%n", policy, threads, records * 1e9 / elapsed,
+                    store.getBatches(), (double) store.getAppends() / store.getBatches(), store.getFsyncs());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * 快照里放users个用户，日志里再追加10%，测量重新打开的耗时
+     */
+    private static void recovery(Path base, int users) throws Exception {
+        Path dir = Files.createTempDirectory(base, "userstore");
+        try {
+            UserTable map = new MapUserTable();
+            UserStore store = new UserStore(dir, FsyncPolicy.NEVER, 1000, Long.MAX_VALUE, map);
+            store.open();
+            for (int i = 0; i < users; i++) {
+                map.put("user" + i, CREDENTIAL);
+            }
+            long start = System.nanoTime();
+            store.snapshot();
+            long snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+            int tail = Math.max(1, users / 10);
+            for (int i = users; i < users + tail; i++) {
+                store.append("user" + i, CREDENTIAL);
+            }
+            store.close();
+            long snapshotBytes = Files.size(dir.resolve("users.snapshot"));
+            long logBytes = Files.size(dir.resolve("users.log"));
+            map = null;
+            System.gc();
+
+            UserTable recovered = new MapUserTable();
+            start = System.nanoTime();
+            UserStore reopened = new UserStore(dir, FsyncPolicy.NEVER, 1000, Long.MAX_VALUE, recovered);
+            reopened.open();
+            long recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+            reopened.close();
+            System.out.printf("%nrecovery: %d users (snapshot %d MB written in %d ms, log tail %d records / %d MB)%n",
+                    recovered.size(), snapshotBytes >> 20, snapshotMillis, tail, logBytes >> 20);
+            System.out.printf("recovered in %d ms -> %s%n", recoveryMillis,
+                    recovered.size() == users + tail ? "OK" : "MISSING USERS");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * 用同名目录占住快照的临时文件让快照失败，连续请求两次切换日志，
+     * 旧日志不能被第二次切换覆盖；重新打开（会清掉占位目录）后用户应该一个不少
+     */
+    private static void compactionFailure(Path base) throws Exception {
+        Path dir = Files.createTempDirectory(base, "userstore");
+        try {
+            UserTable map = new MapUserTable();
+            UserStore store = new UserStore(dir, FsyncPolicy.ALWAYS, 1000, Long.MAX_VALUE, map);
+            store.open();
+            Files.createDirectory(dir.resolve("users.snapshot.tmp"));
+            int failures = 0;
+            int users = 0;
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++, users++) {
+                    store.append("user" + users, CREDENTIAL);
+                }
+                if (round < 2) {
+                    try {
+                        store.snapshot();
+                    } catch (IOException e) {
+                        failures++;
+                    }
+                }
+            }
+            store.close();
+
+            UserTable recovered = new MapUserTable();
+            UserStore reopened = new UserStore(dir, FsyncPolicy.ALWAYS, 1000, Long.MAX_VALUE, recovered);
+            reopened.open();
+            reopened.snapshot(); // 占位目录已被清掉，这次快照应该成功并删除旧日志
+            reopened.close();
+            System.out.printf("%nsnapshot failure: %d/2 snapshots failed, recovered %d/%d users, old log %s -> %s%n",
+                    failures, recovered.size(), users,
+                    Files.exists(dir.resolve("users.log.old")) ? "left over" : "compacted",
+                    failures == 2 && recovered.size() == users ? "OK" : "LOST USERS");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import server.OffHeapUserTable;
+import server.UserTable;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * 用户表内存占用基准测试
+ * 分别往ConcurrentHashMap和堆外开放寻址表里放N个用户（真实长度的PBKDF2凭据），统计：
+ * 每个用户占用的堆内存和堆外内存、随机查找耗时、表存活时一次Full GC的耗时（GC要遍历的对象越多越慢）。
+ * 两种实现依次在同一个JVM里测量，每次测量前先GC。
+ *
+ * 用法: java -Xmx4g -cp build bench.UserTableBenchmark [用户数=2000000] [map,offheap]
+ */
+public class UserTableBenchmark {
+    private static final int LOOKUPS = 2_000_000;
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] types = (args.length > 1 ? args[1] : "map,offheap").split(",");
+        System.out.printf("%d users%n", users);
+        System.out.printf("%-9s %12s %14s %12s %12s %12s %12s%n", "table", "heap B/user", "offheap B/user",
+                "total B/user", "insert(ns)", "get(ns)", "fullGC(ms)");
+        for (String type : types) {
+            run(type, users);
+        }
+    }
+
+    private static void run(String type, int users) {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        UserTable table = UserTable.create(type);
+        Random random = new Random(42);
+        byte[] salt = new byte[16];
+        byte[] hash = new byte[32];
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            random.nextBytes(salt);
+            random.nextBytes(hash);
+            table.put("user" + i, "pbkdf2-sha256$120000$" + encoder.encodeToString(salt) + "$"
+                    + encoder.encodeToString(hash));
+        }
+        double insertNanos = (double) (System.nanoTime() - start) / users;
+
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+
+        String[] keys = new String[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "user" + random.nextInt(users);
+        }
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (table.get(keys[i & 4095]) != null) {
+                found++;
+            }
+        }
+        double getNanos = (double) (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        System.gc();
+        long gcMillis = (System.nanoTime() - start) / 1_000_000;
+
+        if (found != LOOKUPS || table.size() != users) {
+            throw new IllegalStateException("lookup failed: " + found + "/" + LOOKUPS + ", size " + table.size());
+        }
+        if (table instanceof OffHeapUserTable) {
+            OffHeapUserTable offHeap = (OffHeapUserTable) table;
+            direct = offHeap.getOffHeapBytes(); // 已分配的块（最后一个块可能没写满）
+        }
+        System.out.printf("%-9s %12.1f %14.1f %12.1f %12.1f %12.1f %12d%n", type, (double) heap / users,
+                (double) direct / users, (double) (heap + direct) / users, insertNanos, getNanos, gcMillis);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
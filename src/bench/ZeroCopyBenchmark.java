@@ -0,0 +1,129 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大文件发送基准测试
+ * 在两个子JVM中分别启动服务器：一个把文件读入堆内存再写出（原buildFileResponse路径），
+ * 一个用FileChannel.transferTo零拷贝发送，比较相同堆上限下的吞吐量和失败数。
+ *
+ * 用法: java -cp build bench.ZeroCopyBenchmark [文件MB=256] [并发数=4] [轮数=3] [堆上限=512m]
+ */
+public class ZeroCopyBenchmark {
+    private static final int PORT = 18090;
+
+    public static void main(String[] args) throws Exception {
+        long fileSize = (args.length > 0 ? Long.parseLong(args[0]) : 256) * 1024 * 1024;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        String maxHeap = args.length > 3 ? args[3] : "512m";
+
+        Path webroot = Files.createTempDirectory("zero-copy-bench");
+        File file = webroot.resolve("large.bin").toFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(fileSize);
+        }
+
+        System.out.printf("file=%dMB concurrency=%d rounds=%d -Xmx%s%n", fileSize >> 20, concurrency, rounds, maxHeap);
+        System.out.printf("%-12s %12s %12s %8s%n", "path", "MB/s", "seconds", "errors");
+        run("heap", Long.MAX_VALUE, webroot, maxHeap, fileSize, concurrency, rounds);
+        run("transferTo", 0, webroot, maxHeap, fileSize, concurrency, rounds);
+
+        file.delete();
+        webroot.toFile().delete();
+    }
+
+    private static void run(String name, long threshold, Path webroot, String maxHeap, long fileSize,
+                            int concurrency, int rounds) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + maxHeap);
+        command.add("-Dhttp.port=" + PORT);
+        command.add("-Dhttp.webroot=" + webroot);
+        command.add("-Dhttp.zeroCopyThreshold=" + threshold);
+        command.add("-Dhttp.cache.maxFileSize=0");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("server.HttpServer");
+        Process server = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            KeepAliveBenchmark.waitForServer(PORT);
+
+            AtomicLong bytes = new AtomicLong();
+            AtomicInteger errors = new AtomicInteger();
+            long start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                Thread thread = new Thread(() -> {
+                    for (int r = 0; r < rounds; r++) {
+                        try {
+                            long received = download();
+                            bytes.addAndGet(received);
+                            if (received != fileSize) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-12s %12.1f %12.2f %8d%n", name, bytes.get() / seconds / (1024 * 1024), seconds, errors.get());
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    /**
+     * 下载文件并丢弃内容，返回收到的响应体字节数
+     */
+    private static long download() throws IOException {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(60000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /large.bin HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            int matched = 0;
+            while (matched < 4) {  // 跳过响应头
+                int b = in.read();
+                if (b < 0) {
+                    return 0;
+                }
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                total += n;
+            }
+            return total;
+        }
+    }
+}
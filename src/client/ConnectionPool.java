@@ -0,0 +1,356 @@
+package client;
+
+import shared.HttpConstants;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 客户端长连接池，按 host:port 分组（线程安全）
+ * 每组最多 maxPerRoute 个连接（使用中+空闲），用满时借用方等待归还；空闲连接后进先出，
+ * 最近用过的连接最不可能已被服务器关闭。
+ *
+ * 服务器空闲超过keep-alive超时（默认5秒，响应里的 Keep-Alive: timeout=N）就会关闭连接，
+ * 所以空闲连接的有效期取 idleTimeout 和服务器声明的超时减去余量中较小的一个，
+ * 过期的连接借出前就丢弃，后台线程也会定期清理。服务器在负载高时可能提前关闭连接：
+ * 幂等请求在还没收到任何响应字节时失败，由 HttpClient 换一个连接重试一次；
+ * 不能重试的请求（POST）在发送前先用 isStale() 检查服务器是否已经关闭了连接。
+ */
+public class ConnectionPool {
+    private static final long EXPIRY_MARGIN = 1000; // 服务器声明的超时减去这个余量（毫秒，最多减一半），避免和服务器的关闭赛跑
+    // 空闲不到这个时间（纳秒）的连接不检查是否失效，远小于服务器最短的keep-alive超时（500ms）
+    private static final long VALIDATE_AFTER_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final ConnectionPool DEFAULT = new ConnectionPool(HttpConstants.CLIENT_MAX_PER_ROUTE,
+            HttpConstants.CLIENT_IDLE_TIMEOUT);
+
+    private final int maxPerRoute;
+    private final long idleTimeoutNanos;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final Thread evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxPerRoute 每个 host:port 最多同时打开的连接数
+     * @param idleTimeout 空闲连接最长保留的时间（毫秒）
+     */
+    public ConnectionPool(int maxPerRoute, long idleTimeout) {
+        if (maxPerRoute < 1 || idleTimeout < 1) {
+            throw new IllegalArgumentException("maxPerRoute and idleTimeout must be positive");
+        }
+        this.maxPerRoute = maxPerRoute;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.evictor = new Thread(this::evictLoop, "connection-pool-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    /**
+     * HttpClient默认使用的连接池，所有客户端共享
+     */
+    public static ConnectionPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 借一个连接：优先取未过期的空闲连接，否则在未达上限时新建，已达上限则等待归还
+     * @param timeout 等待可用连接的最长时间（毫秒）
+     */
+    PooledConnection acquire(String host, int port, long timeout) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        Route route = routes.computeIfAbsent(host + ":" + port, key -> new Route());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<PooledConnection> expired = new ArrayList<>();
+        route.lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                PooledConnection connection;
+                while ((connection = route.idle.pollFirst()) != null) {
+                    if (connection.isExpired(now)) {
+                        route.open--;
+                        expired.add(connection);
+                    } else {
+                        route.leased++;
+                        return connection;
+                    }
+                }
+                if (route.open < maxPerRoute) {
+                    route.open++;
+                    route.leased++;
+                    break;
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    throw new IOException("Timed out waiting for a pooled connection to " + host + ":" + port);
+                }
+                route.available.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a pooled connection", e);
+        } finally {
+            route.lock.unlock();
+            for (PooledConnection connection : expired) {
+                connection.close();
+            }
+        }
+
+        // 在锁外建立连接，失败时归还名额
+        try {
+            return new PooledConnection(route, host, port);
+        } catch (IOException e) {
+            release(route, null);
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接；reusable为false（出错、服务器要求关闭、响应长度不确定）时直接关闭
+     */
+    void release(PooledConnection connection, boolean reusable) {
+        if (reusable && !closed && !connection.isClosed()) {
+            connection.markIdle(System.nanoTime(), idleTimeoutNanos);
+            release(connection.route, connection);
+        } else {
+            connection.close();
+            release(connection.route, null);
+        }
+    }
+
+    private void release(Route route, PooledConnection idle) {
+        route.lock.lock();
+        try {
+            route.leased--;
+            if (idle != null) {
+                route.idle.addFirst(idle);
+            } else {
+                route.open--;
+            }
+            route.available.signal();
+        } finally {
+            route.lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭所有过期的空闲连接
+     */
+    public void evictExpired() {
+        long now = System.nanoTime();
+        List<PooledConnection> expired = new ArrayList<>();
+        for (Route route : routes.values()) {
+            route.lock.lock();
+            try {
+                // 空闲队列按归还时间从新到旧排列，过期的都在队尾
+                Iterator<PooledConnection> oldest = route.idle.descendingIterator();
+                while (oldest.hasNext()) {
+                    PooledConnection connection = oldest.next();
+                    if (!connection.isExpired(now)) {
+                        break;
+                    }
+                    oldest.remove();
+                    route.open--;
+                    expired.add(connection);
+                }
+                if (!expired.isEmpty()) {
+                    route.available.signalAll();
+                }
+            } finally {
+                route.lock.unlock();
+            }
+        }
+        for (PooledConnection connection : expired) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 关闭连接池：关闭所有空闲连接，使用中的连接在归还时关闭
+     */
+    public void close() {
+        closed = true;
+        evictor.interrupt();
+        for (Route route : routes.values()) {
+            List<PooledConnection> idle;
+            route.lock.lock();
+            try {
+                idle = new ArrayList<>(route.idle);
+                route.open -= idle.size();
+                route.idle.clear();
+                route.available.signalAll();
+            } finally {
+                route.lock.unlock();
+            }
+            for (PooledConnection connection : idle) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 当前打开的连接数（使用中+空闲）
+     */
+    public int getOpenConnections() {
+        int open = 0;
+        for (Route route : routes.values()) {
+            route.lock.lock();
+            try {
+                open += route.open;
+            } finally {
+                route.lock.unlock();
+            }
+        }
+        return open;
+    }
+
+    public int getIdleConnections() {
+        int idle = 0;
+        for (Route route : routes.values()) {
+            route.lock.lock();
+            try {
+                idle += route.idle.size();
+            } finally {
+                route.lock.unlock();
+            }
+        }
+        return idle;
+    }
+
+    private void evictLoop() {
+        long period = Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2));
+        while (!closed) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+            evictExpired();
+        }
+    }
+
+    /**
+     * 同一个 host:port 的连接
+     */
+    private static final class Route {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+        final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+        int open;   // 已打开（或正在建立）的连接数，包括空闲的
+        int leased; // 借出未还的连接数
+    }
+
+    /**
+     * 池中的一个连接；reused表示这次借出之前已经处理过请求（可能已被服务器关闭）
+     */
+    static final class PooledConnection {
+        private final Route route;
+        private final SocketChannel channel; // 平时阻塞模式，通过socket的流读写；只在isStale()里临时切换成非阻塞
+        private final Socket socket;
+        private final ByteBuffer probe = ByteBuffer.allocate(1);
+        private final OutputStream out;
+        private final BufferedInputStream in;
+        private boolean reused = false;
+        private long idleSince;
+        private long expiresAt;
+        private long serverTimeoutNanos = Long.MAX_VALUE;
+
+        private PooledConnection(Route route, String host, int port) throws IOException {
+            this.route = route;
+            this.channel = SocketChannel.open();
+            this.socket = channel.socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), HttpConstants.CLIENT_CONNECT_TIMEOUT);
+                socket.setSoTimeout(30000); // 30秒超时
+                this.out = socket.getOutputStream();
+                this.in = new BufferedInputStream(socket.getInputStream());
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        OutputStream getOutputStream() {
+            return out;
+        }
+
+        InputStream getInputStream() {
+            return in;
+        }
+
+        boolean isReused() {
+            return reused;
+        }
+
+        boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        /**
+         * 服务器是否已经关闭了这个空闲连接（isClosed()只反映本端）
+         * 空闲期间服务器不应该发送任何数据：读到EOF、出错或者有数据都说明连接不能再用；
+         * 用一次非阻塞读取探测，没有数据时立即返回0，不等待。刚归还不久的连接跳过检查。
+         */
+        boolean isStale() {
+            if (!reused || System.nanoTime() - idleSince < VALIDATE_AFTER_NANOS) {
+                return socket.isClosed();
+            }
+            try {
+                if (in.available() > 0) {
+                    return true;
+                }
+                probe.clear();
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(probe) != 0; // -1是服务器已关闭，>0是收到了不属于任何请求的数据
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /**
+         * 记下服务器在 Keep-Alive 头部里声明的空闲超时（秒）
+         */
+        void setServerTimeout(int seconds) {
+            long millis = TimeUnit.SECONDS.toMillis(seconds);
+            serverTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis - Math.min(EXPIRY_MARGIN, millis / 2));
+        }
+
+        private void markIdle(long now, long idleTimeoutNanos) {
+            reused = true;
+            idleSince = now;
+            expiresAt = now + Math.min(idleTimeoutNanos, serverTimeoutNanos);
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0 || socket.isClosed();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import shared.HttpConstants;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +14,7 @@ public class HttpClient {
     private String host;
     private int port;
     private boolean followRedirects;
+    private final ConnectionPool pool;
     private Socket connection;
     private OutputStream out;
     private InputStream in;
@@ -21,8 +23,16 @@ public class HttpClient {
     private Map<String, CachedResponse> cache;
 
     public HttpClient(String host, int port) {
+        this(host, port, ConnectionPool.getDefault());
+    }
+
+    /**
+     * @param pool 发送请求使用的连接池，为null时每个请求新建连接、用完关闭
+     */
+    public HttpClient(String host, int port, ConnectionPool pool) {
         this.host = host;
         this.port = port;
+        this.pool = pool;
         this.followRedirects = true;
         this.cache = new HashMap<>();
     }
@@ -52,10 +62,7 @@ public class HttpClient {
             return null;
         }
         
-        try (Socket socket = new Socket(host, port);
-             OutputStream out = socket.getOutputStream();
-             InputStream in = socket.getInputStream()) {
-            
+        try {
             // 检查缓存（仅对GET请求）
             if ("GET".equals(request.getMethod())) {
                 CachedResponse cached = cache.get(request.getPath());
@@ -71,12 +78,8 @@ public class HttpClient {
                 }
             }
             
-            // 发送请求
-            out.write(request.toString().getBytes(HttpConstants.DEFAULT_CHARSET));
-            out.flush();
-            
-            // 解析响应
-            HttpResponse response = ResponseParser.parse(in);
+            // 发送请求并解析响应（默认从连接池借用长连接）
+            HttpResponse response = execute(request);
             
             if (response == null) {
                 return null;
@@ -167,6 +170,119 @@ if (statusCode == HttpConstants.STATUS_MOVED_PERMANENTLY) {
         }
     }
     
+    /**
+     * 发送一个请求并读取响应
+     * 从连接池借来的连接可能已被服务器关闭（空闲超时或负载高时提前关闭），发送后才会发现：
+     * 幂等请求如果在收到任何响应字节之前失败（写入出错、读到EOF或连接被重置），换一个连接重试一次；
+     * 读取超时或者已经开始接收响应时不重试，服务器可能正在处理或已经处理过。
+     * 非幂等请求（POST）不重试，改为发送前检查连接是否已被服务器关闭。
+     */
+    private HttpResponse execute(HttpRequest request) throws IOException {
+        byte[] data = request.toString().getBytes(HttpConstants.DEFAULT_CHARSET);
+        if (pool == null) {
+            try (Socket socket = new Socket(host, port);
+                 OutputStream out = socket.getOutputStream();
+                 InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                out.write(data);
+                out.flush();
+                return ResponseParser.parse(in);
+            }
+        }
+
+        boolean idempotent = isIdempotent(request.getMethod());
+        boolean retried = false;
+        while (true) {
+            ConnectionPool.PooledConnection connection = pool.acquire(host, port, HttpConstants.CLIENT_POOL_TIMEOUT);
+            if (!idempotent && connection.isStale()) {
+                pool.release(connection, false);
+                continue;
+            }
+            boolean reusable = false;
+            try {
+                InputStream in = connection.getInputStream();
+                try {
+                    OutputStream out = connection.getOutputStream();
+                    out.write(data);
+                    out.flush();
+                    // 先等到第一个响应字节，区分“连接已失效”和“响应读到一半出错”
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        throw new EOFException("Connection closed by server");
+                    }
+                    in.reset();
+                } catch (SocketTimeoutException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (!connection.isReused() || !idempotent || retried) {
+                        throw e;
+                    }
+                    System.out.println("  [Pool] Stale pooled connection (" + e.getMessage() + "), retrying");
+                    retried = true;
+                    continue;
+                }
+
+                HttpResponse response = ResponseParser.parse(in);
+                if (response == null) {
+                    throw new EOFException("Connection closed by server");
+                }
+                reusable = isReusable(request, response);
+                if (reusable) {
+                    int timeout = keepAliveTimeout(response);
+                    if (timeout >= 0) {
+                        connection.setServerTimeout(timeout);
+                    }
+                }
+                return response;
+            } finally {
+                pool.release(connection, reusable);
+            }
+        }
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) ||
+               "DELETE".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * 响应读完后连接能否继续使用：双方都没有要求关闭，且响应体长度明确（没有读到连接关闭为止）
+     */
+    private static boolean isReusable(HttpRequest request, HttpResponse response) {
+        if ("close".equalsIgnoreCase(request.getHeader("Connection")) ||
+            "close".equalsIgnoreCase(response.getHeader("Connection"))) {
+            return false;
+        }
+        int statusCode = response.getStatusCode();
+        if ("HEAD".equals(request.getMethod()) || statusCode / 100 == 1 || statusCode == 204 ||
+            statusCode == HttpConstants.STATUS_NOT_MODIFIED) {
+            return true;
+        }
+        String transferEncoding = response.getHeader("Transfer-Encoding");
+        return response.getHeader("Content-Length") != null ||
+               (transferEncoding != null && transferEncoding.trim().equalsIgnoreCase("chunked"));
+    }
+
+    /**
+     * 解析 Keep-Alive: timeout=5, max=100 中的timeout（秒），没有时返回-1
+     */
+    private static int keepAliveTimeout(HttpResponse response) {
+        String keepAlive = response.getHeader("Keep-Alive");
+        if (keepAlive == null) {
+            return -1;
+        }
+        for (String param : keepAlive.split(",")) {
+            String[] pair = param.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("timeout")) {
+                try {
+                    return Integer.parseInt(pair[1].trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
     /**
      * 复制请求头
      */
@@ -335,12 +451,14 @@ if (statusCode == HttpConstants.STATUS_MOVED_PERMANENTLY) {
             System.out.println("6.3 与短链接测试对比");
             System.out.println("进行10次短链接(GET)");
 
+            // sendRequest默认复用连接池里的长连接，短连接对比使用不带连接池的客户端
+            HttpClient shortClient = new HttpClient(client.host, client.port, null);
             long shortAllTime = 0;
             for (int i = 0; i < 10; i++) {
                 System.out.println("第" + i + "次请求");
                 HttpRequest shortRequest = RequestBuilder.buildGetRequest("/index.html");
                 startTime = System.currentTimeMillis();
-                client.sendRequest(shortRequest);
+                shortClient.sendRequest(shortRequest);
                 duration = System.currentTimeMillis() - startTime;
                 shortAllTime += duration;
                 System.out.println("花费的时间: " + duration + "ms");
@@ -424,7 +542,7 @@ if (statusCode == HttpConstants.STATUS_MOVED_PERMANENTLY) {
             connection = new Socket(host, port);
             connection.setSoTimeout(30000); // 30秒超时
             out = connection.getOutputStream();
-            in = connection.getInputStream();
+            in = new BufferedInputStream(connection.getInputStream());
             connected = true;
         }
     }
@@ -0,0 +1,375 @@
+package client;
+
+import shared.HttpConstants;
+import shared.Histogram;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环（open-loop）HTTP压测工具
+ * 按目标速率预先排好每个请求的发送时间（第i个请求在 start + i/rate），由N个长连接轮流发送：
+ * 服务器变慢时不会像“一问一答”的闭环压测那样跟着放慢发送，请求在连接上排队，
+ * 延迟从计划发送时间开始计算（coordinated omission校正），排队的时间也算进延迟里；
+ * 同时给出从实际发送开始计算的服务时间作为对照，两者差得越多说明排队越严重。
+ *
+ * 请求比例默认：静态文件80%、登录15%、注册5%；登录用的用户在开始前注册好，
+ * 注册的用户名每次运行都不同（服务器建议用 -Dhttp.store.dir= 启动，不写入用户数据）。
+ *
+ * 用法: java -cp build client.LoadGenerator [host:port=localhost:8022] [连接数=16] [每秒请求数=1000]
+ *       [持续秒数=10] [比例=static=80,login=15,register=5]
+ */
+public class LoadGenerator {
+    private static final String[] STATIC_PATHS = {"/index.html", "/style.css", "/login.html", "/data.json"};
+    private static final int LOGIN_USERS = 10;
+    private static final String PASSWORD = "loadtest123";
+    private static final int SUB_BUCKET_BITS = 7; // 延迟直方图相对误差约0.8%
+    private static final long LATE_NANOS = 1_000_000; // 比计划晚1ms以上发送算作落后
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+    private static final int MAX_STATUS = 600;
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final double rate;
+    private final int seconds;
+    private final Map<String, Integer> mix;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public LoadGenerator(String host, int port, int connections, double rate, int seconds, Map<String, Integer> mix) {
+        if (connections < 1 || rate <= 0 || seconds < 1) {
+            throw new IllegalArgumentException("connections, rate and duration must be positive");
+        }
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.mix = mix;
+        for (String type : mix.keySet()) {
+            stats.put(type, new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : HttpConstants.SERVER_HOST + ":" + HttpConstants.SERVER_PORT;
+        int colon = target.lastIndexOf(':');
+        String host = colon > 0 ? target.substring(0, colon) : target;
+        int port = colon > 0 ? Integer.parseInt(target.substring(colon + 1)) : HttpConstants.SERVER_PORT;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        Map<String, Integer> mix = parseMix(args.length > 4 ? args[4] : "static=80,login=15,register=5");
+
+        new LoadGenerator(host, port, connections, rate, seconds, mix).run();
+    }
+
+    /**
+     * 解析 "static=80,login=15,register=5" 形式的请求比例
+     */
+    static Map<String, Integer> parseMix(String text) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : text.split(",")) {
+            String[] pair = part.split("=", 2);
+            String type = pair[0].trim();
+            if (!type.equals("static") && !type.equals("login") && !type.equals("register")) {
+                throw new IllegalArgumentException("Unknown request type: " + type);
+            }
+            int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            if (weight > 0) {
+                mix.put(type, weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("Empty request mix: " + text);
+        }
+        return mix;
+    }
+
+    public void run() throws InterruptedException {
+        if (mix.containsKey("login") && !registerLoginUsers()) {
+            return;
+        }
+        long total = (long) (rate * seconds);
+        long interval = (long) (1e9 / rate);
+        System.out.printf("Target %s:%d, %d connections, %.0f req/s for %ds (%d requests), mix %s%n",
+                host, port, connections, rate, seconds, total, mix);
+
+        long start = System.nanoTime() + 100_000_000; // 留出启动线程的时间，第一个请求不会一开始就落后
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int first = c;
+            Thread thread = new Thread(() -> drive(first, total, start, interval), "load-" + c);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // 每秒输出一次进度
+        long lastCompleted = 0;
+        for (int second = 1; ; second++) {
+            long wake = start + second * 1_000_000_000L;
+            while (System.nanoTime() < wake && threads.stream().anyMatch(Thread::isAlive)) {
+                LockSupport.parkNanos(Math.min(wake - System.nanoTime(), 50_000_000L));
+            }
+            if (threads.stream().noneMatch(Thread::isAlive)) {
+                break;
+            }
+            long done = completed.sum();
+            System.out.printf("  %3ds  %8d req/s  completed %d/%d%n", second, done - lastCompleted, done, total);
+            lastCompleted = done;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(total, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * 一个连接负责第first、first+N、first+2N...个请求，到计划时间才发送，已经落后就立即发送
+     */
+    private void drive(int first, long total, long start, long interval) {
+        SplittableRandom random = new SplittableRandom(first * 0x9E3779B97F4A7C15L);
+        String[] types = mix.keySet().toArray(new String[0]);
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        Connection connection = new Connection(host, port);
+        long sequence = 0;
+        try {
+            for (long i = first; i < total; i += connections) {
+                long intended = start + i * interval;
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                long lag = now - intended;
+                if (lag > LATE_NANOS) {
+                    late.increment();
+                    maxLag.accumulateAndGet(lag, Math::max);
+                }
+
+                String type = pick(types, random.nextInt(totalWeight));
+                HttpRequest request = buildRequest(type, random, first + "_" + sequence++);
+                Stats typeStats = stats.get(type);
+                try {
+                    HttpResponse response = connection.send(request);
+                    long end = System.nanoTime();
+                    typeStats.corrected.record(end - intended);
+                    typeStats.service.record(end - now);
+                    int status = response.getStatusCode();
+                    typeStats.statuses.incrementAndGet(status >= 0 && status < MAX_STATUS ? status : 0);
+                } catch (IOException e) {
+                    typeStats.errors.increment();
+                    connection.close();
+                }
+                completed.increment();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String pick(String[] types, int value) {
+        for (String type : types) {
+            value -= mix.get(type);
+            if (value < 0) {
+                return type;
+            }
+        }
+        return types[types.length - 1];
+    }
+
+    private HttpRequest buildRequest(String type, SplittableRandom random, String suffix) {
+        HttpRequest request;
+        switch (type) {
+            case "login":
+                request = RequestBuilder.buildPostRequest("/api/login",
+                        "username=" + loginUser(random.nextInt(LOGIN_USERS)) + "&password=" + PASSWORD);
+                break;
+            case "register":
+                request = RequestBuilder.buildPostRequest("/api/register",
+                        "username=lg_" + runId + "_" + suffix + "&password=" + PASSWORD);
+                break;
+            default:
+                request = RequestBuilder.buildGetRequest(STATIC_PATHS[random.nextInt(STATIC_PATHS.length)]);
+        }
+        request.setHeader("Host", host + ":" + port);
+        return request;
+    }
+
+    private String loginUser(int index) {
+        return "lg_" + runId + "_user" + index;
+    }
+
+    /**
+     * 注册登录请求要用的用户
+     */
+    private boolean registerLoginUsers() {
+        Connection connection = new Connection(host, port);
+        try {
+            for (int i = 0; i < LOGIN_USERS; i++) {
+                HttpRequest request = RequestBuilder.buildPostRequest("/api/register",
+                        "username=" + loginUser(i) + "&password=" + PASSWORD);
+                request.setHeader("Host", host + ":" + port);
+                HttpResponse response = connection.send(request);
+                if (response.getStatusCode() != HttpConstants.STATUS_OK) {
+                    System.err.println("Failed to register login user: " + response.getStatusCode() + " "
+                            + response.getBody());
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Cannot reach " + host + ":" + port + ": " + e.getMessage());
+            return false;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void report(long total, double elapsed) {
+        long responses = 0;
+        long errors = 0;
+        for (Stats typeStats : stats.values()) {
+            responses += typeStats.corrected.snapshot().getCount();
+            errors += typeStats.errors.sum();
+        }
+        System.out.printf("%nRequests: %d, responses: %d, errors: %d, elapsed %.2fs%n", total, responses, errors,
+                elapsed);
+        System.out.printf("Throughput: %.1f req/s (target %.0f req/s)%n", responses / elapsed, rate);
+
+        System.out.println("\nLatency from intended send time (corrected for coordinated omission), ms:");
+        printLatencies(true);
+        System.out.println("\nService time from actual send, ms:");
+        printLatencies(false);
+
+        System.out.println("\nStatus codes:");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            StringBuilder line = new StringBuilder(String.format("  %-9s", entry.getKey()));
+            AtomicLongArray statuses = entry.getValue().statuses;
+            for (int status = 0; status < MAX_STATUS; status++) {
+                if (statuses.get(status) > 0) {
+                    line.append(' ').append(status).append('=').append(statuses.get(status));
+                }
+            }
+            long typeErrors = entry.getValue().errors.sum();
+            if (typeErrors > 0) {
+                line.append(" errors=").append(typeErrors);
+            }
+            System.out.println(line);
+        }
+
+        long lateCount = late.sum();
+        if (lateCount > 0) {
+            System.out.printf("%nSent late (>1ms behind schedule): %d (%.1f%%), max lag %.1f ms%n",
+                    lateCount, 100.0 * lateCount / total, maxLag.get() / 1e6);
+            if (lateCount * 100 > total) {
+                System.out.println("警告：超过1%的请求没能按计划发送——连接数不够或服务器已饱和，" +
+                        "排队时间已计入校正后的延迟；需要区分时可增加连接数再测一次");
+            }
+        }
+    }
+
+    private void printLatencies(boolean corrected) {
+        StringBuilder header = new StringBuilder(String.format("  %-9s %9s %9s", "type", "count", "mean"));
+        for (double percentile : PERCENTILES) {
+            header.append(String.format(" %9s", "p" + format(percentile * 100)));
+        }
+        System.out.println(header.append(String.format(" %9s", "max")));
+
+        Histogram merged = new Histogram(SUB_BUCKET_BITS);
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Histogram histogram = corrected ? entry.getValue().corrected : entry.getValue().service;
+            printRow(entry.getKey(), histogram.snapshot());
+            merged.add(histogram);
+        }
+        if (stats.size() > 1) {
+            printRow("all", merged.snapshot());
+        }
+    }
+
+    private static void printRow(String name, Histogram.Snapshot snapshot) {
+        StringBuilder row = new StringBuilder(String.format("  %-9s %9d %9.3f", name, snapshot.getCount(),
+                snapshot.getMean() / 1e6));
+        for (double percentile : PERCENTILES) {
+            row.append(String.format(" %9.3f", snapshot.percentile(percentile) / 1e6));
+        }
+        System.out.println(row.append(String.format(" %9.3f", snapshot.getMax() / 1e6)));
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * 单个请求类型的统计：校正后的延迟、服务时间（纳秒）、状态码和连接错误
+     */
+    private static final class Stats {
+        final Histogram corrected = new Histogram(SUB_BUCKET_BITS);
+        final Histogram service = new Histogram(SUB_BUCKET_BITS);
+        final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * 一个长连接：断开或服务器返回Connection: close后，下一个请求重新建立连接（建连时间计入延迟）
+     */
+    private static final class Connection {
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+
+        Connection(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        HttpResponse send(HttpRequest request) throws IOException {
+            if (socket == null) {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), 5000);
+                socket.setSoTimeout(30_000);
+                out = socket.getOutputStream();
+                in = new BufferedInputStream(socket.getInputStream());
+            }
+            out.write(request.toString().getBytes(HttpConstants.DEFAULT_CHARSET));
+            out.flush();
+            HttpResponse response = ResponseParser.parse(in);
+            if (response == null) {
+                throw new IOException("Connection closed by server");
+            }
+            if ("close".equalsIgnoreCase(response.getHeader("Connection"))) {
+                close();
+            }
+            return response;
+        }
+
+        void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+                socket = null;
+            }
+        }
+    }
+}
@@ -11,7 +11,7 @@ public class RequestBuilder {
         request.setHeader("Host", HttpConstants.SERVER_HOST + ":" + HttpConstants.SERVER_PORT);
         request.setHeader("User-Agent", "SimpleJavaHTTPClient/1.0");
         request.setHeader("Accept", "text/html,application/json,image/jpeg,*/*");
-        request.setHeader("Accept-Encoding", "identity");
+        request.setHeader("Accept-Encoding", "gzip, identity");
         request.setHeader("Connection", "keep-alive");
         return request;
     }
@@ -2,16 +2,21 @@ package client;
 
 import shared.HttpConstants;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 public class ResponseParser {
     
+    /**
+     * 解析一个响应；调用方应传入同一个带缓冲的输入流，
+     * 这样长连接上的后续响应不会因为缓冲丢失数据
+     */
     public static HttpResponse parse(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        
         // 解析状态行
-        String statusLine = reader.readLine();
+        String statusLine = readLine(inputStream);
         if (statusLine == null) {
             return null;
         }
@@ -26,7 +31,7 @@ public class ResponseParser {
         // 解析响应头
         Map<String, String> headers = new HashMap<>();
         String headerLine;
-        while ((headerLine = reader.readLine()) != null && !headerLine.isEmpty()) {
+        while ((headerLine = readLine(inputStream)) != null && !headerLine.isEmpty()) {
             int colonIndex = headerLine.indexOf(':');
             if (colonIndex > 0) {
                 String headerName = headerLine.substring(0, colonIndex).trim();
@@ -35,36 +40,124 @@ public class ResponseParser {
             }
         }
         
-        // 解析响应体
-        StringBuilder bodyBuilder = new StringBuilder();
+        // 解析响应体（1xx、204、304响应没有响应体）
+        if (statusCode / 100 == 1 || statusCode == 204 || statusCode == HttpConstants.STATUS_NOT_MODIFIED) {
+            return new HttpResponse(statusCode, headers, "");
+        }
+
+        byte[] body;
+        String transferEncoding = headers.get("Transfer-Encoding");
         String contentLengthHeader = headers.get("Content-Length");
-        if (contentLengthHeader != null) {
+        if (transferEncoding != null && transferEncoding.trim().equalsIgnoreCase("chunked")) {
+            body = readChunked(inputStream);
+        } else if (contentLengthHeader != null) {
             try {
-                int contentLength = Integer.parseInt(contentLengthHeader);
-                if (contentLength > 0) {
-                    char[] bodyChars = new char[contentLength];
-                    int bytesRead = reader.read(bodyChars, 0, contentLength);
-                    if (bytesRead > 0) {
-                        bodyBuilder.append(bodyChars, 0, bytesRead);
-                    }
-                }
+                body = readFully(inputStream, Integer.parseInt(contentLengthHeader));
             } catch (NumberFormatException e) {
                 System.err.println("Invalid Content-Length: " + contentLengthHeader);
+                body = new byte[0];
             }
+        } else if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+            // 没有长度信息、服务器会关闭连接：响应体一直到连接关闭
+            body = inputStream.readAllBytes();
         } else {
             // 对于没有Content-Length的响应，尝试读取可用数据
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
             try {
-                while (reader.ready()) {
-                    int charRead = reader.read();
-                    if (charRead == -1) break;
-                    bodyBuilder.append((char) charRead);
+                while (inputStream.available() > 0) {
+                    int b = inputStream.read();
+                    if (b == -1) break;
+                    bytes.write(b);
                 }
             } catch (IOException e) {
                 // 忽略读取错误
             }
+            body = bytes.toByteArray();
+        }
+
+        // 按Content-Encoding解码
+        String contentEncoding = headers.get("Content-Encoding");
+        if (contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip") && body.length > 0) {
+            body = gunzip(body);
         }
         
-        return new HttpResponse(statusCode, headers, bodyBuilder.toString());
+        return new HttpResponse(statusCode, headers, new String(body, HttpConstants.DEFAULT_CHARSET));
+    }
+
+    /**
+     * 按字节读取一行（以LF结尾，去掉CR），流结束时返回null
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.ISO_8859_1) : null;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[Math.max(0, length)];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = in.read(bytes, offset, bytes.length - offset);
+            if (n < 0) {
+                break; // 连接提前关闭，返回已读到的部分
+            }
+            offset += n;
+        }
+        return offset == bytes.length ? bytes : Arrays.copyOf(bytes, offset);
+    }
+
+    /**
+     * 读取chunked编码的响应体：每个分块为"十六进制长度[;扩展]\r\n数据\r\n"，
+     * 以长度为0的分块结束，之后可能有trailer头部，直到空行
+     */
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed inside chunked body");
+            }
+            int semicolon = sizeLine.indexOf(';');
+            String sizeText = (semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim();
+            int size;
+            try {
+                size = Integer.parseInt(sizeText, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + sizeLine);
+            }
+            if (size < 0) {
+                throw new IOException("Invalid chunk size: " + sizeLine);
+            }
+            if (size == 0) {
+                break;
+            }
+            byte[] chunk = readFully(in, size);
+            if (chunk.length < size) {
+                throw new EOFException("Connection closed inside chunk");
+            }
+            body.write(chunk);
+            readLine(in); // 分块末尾的CRLF
+        }
+        // 跳过trailer头部
+        String trailer;
+        while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+            // 忽略
+        }
+        return body.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return gzip.readAllBytes();
+        }
     }
 }
 
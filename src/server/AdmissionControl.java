@@ -0,0 +1,207 @@
+package server;
+
+import shared.HttpConstants;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制和按IP限流
+ * 总连接数和每个IP的连接数超过上限时，新连接直接收到预先序列化好的503/429（带Retry-After）并被关闭；
+ * 每个IP一个令牌桶（GCRA算法，一个AtomicLong保存“理论到达时间”，CAS更新，无锁），每个请求消耗一个令牌。
+ * 各IP的状态放在ConcurrentHashMap里，后台线程定期删除空闲（令牌已补满且没有连接）的条目。
+ */
+public class AdmissionControl {
+    private static final long SWEEP_INTERVAL_MILLIS = 10_000;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerIp;
+    private final long intervalNanos;   // 每个令牌的间隔，0表示不限流
+    private final long toleranceNanos;  // 突发容量对应的提前量
+    private final ConcurrentHashMap<InetAddress, ClientState> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final CannedResponse overloaded;
+    private final CannedResponse tooManyRequests;
+    private final Thread sweeper;
+    private volatile boolean running = true;
+
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder overloadedRequests = new LongAdder();
+
+    public AdmissionControl() {
+        this(HttpConstants.MAX_CONNECTIONS, HttpConstants.MAX_CONNECTIONS_PER_IP,
+                HttpConstants.RATE_LIMIT, HttpConstants.RATE_LIMIT_BURST);
+    }
+
+    /**
+     * @param maxConnections      同时打开的连接数上限
+     * @param maxConnectionsPerIp 每个IP同时打开的连接数上限
+     * @param requestsPerSecond   每个IP每秒的请求数，0表示不限流
+     * @param burst               每个IP允许的突发请求数
+     */
+    public AdmissionControl(int maxConnections, int maxConnectionsPerIp, double requestsPerSecond, int burst) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.intervalNanos = requestsPerSecond > 0 ? (long) (1e9 / requestsPerSecond) : 0;
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        String retryAfter = String.valueOf(HttpConstants.RETRY_AFTER_SECONDS);
+        this.overloaded = CannedResponse.withHeader(HttpConstants.STATUS_SERVICE_UNAVAILABLE,
+                "Retry-After", retryAfter).closing();
+        this.tooManyRequests = CannedResponse.withHeader(HttpConstants.STATUS_TOO_MANY_REQUESTS,
+                "Retry-After", retryAfter);
+
+        sweeper = new Thread(this::sweepLoop, "admission-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * 新连接到达时调用；返回null表示接受（之后必须调用release），否则返回应发送的拒绝响应（总是关闭连接）
+     */
+    public CannedResponse admit(InetAddress address) {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            rejectedConnections.increment();
+            return overloaded;
+        }
+        // 在compute里计数，和sweep()删除同一个IP的操作互斥
+        ClientState client = clients.compute(address, (a, state) -> {
+            ClientState result = state != null ? state : new ClientState();
+            result.connections.incrementAndGet();
+            return result;
+        });
+        if (client.connections.get() > maxConnectionsPerIp) {
+            client.connections.decrementAndGet();
+            connections.decrementAndGet();
+            rejectedConnections.increment();
+            return tooManyRequests.closing();
+        }
+        return null;
+    }
+
+    /**
+     * 连接关闭时调用，与一次成功的admit对应
+     */
+    public void release(InetAddress address) {
+        connections.decrementAndGet();
+        clients.computeIfPresent(address, (a, state) -> {
+            state.connections.decrementAndGet();
+            return state;
+        });
+    }
+
+    /**
+     * 为一个请求取令牌；令牌不足时返回false，调用方应返回tooManyRequests()
+     */
+    public boolean tryAcquire(InetAddress address) {
+        if (intervalNanos == 0 || address == null) {
+            return true;
+        }
+        ClientState client = clients.computeIfAbsent(address, a -> new ClientState());
+        long now = System.nanoTime();
+        while (true) {
+            long tat = client.tat.get();
+            long start = Math.max(tat, now);
+            if (start - now > toleranceNanos) {
+                rejectedRequests.increment();
+                return false;
+            }
+            if (client.tat.compareAndSet(tat, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 工作队列已满时调用，用于统计；返回要发送的503响应
+     */
+    public CannedResponse overloaded() {
+        overloadedRequests.increment();
+        return overloaded;
+    }
+
+    public CannedResponse tooManyRequests() {
+        return tooManyRequests;
+    }
+
+    /**
+     * 在接收线程上拒绝连接：非阻塞地写出预先生成的响应后关闭，不占用工作线程。
+     * 关闭前先丢弃已经到达的请求数据，否则内核会发送RST，客户端可能读不到响应。
+     */
+    static void reject(SocketChannel channel, CannedResponse response) {
+        try {
+            channel.configureBlocking(false);
+            channel.write(new ByteBuffer[] {ByteBuffer.wrap(response.getHead()),
+                    ByteBuffer.wrap(DateHeader.get()), ByteBuffer.wrap(response.getTail(false))});
+            channel.shutdownOutput();
+            ByteBuffer discard = ByteBuffer.allocate(1024);
+            for (int i = 0; i < 16 && channel.read(discard) > 0; i++) {
+                discard.clear();
+            }
+        } catch (IOException e) {
+            // 客户端已经断开，直接关闭
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略关闭错误
+            }
+        }
+    }
+
+    public int getActiveConnections() {
+        return connections.get();
+    }
+
+    public int getTrackedClients() {
+        return clients.size();
+    }
+
+    public void shutdown() {
+        running = false;
+        sweeper.interrupt();
+    }
+
+    private void sweepLoop() {
+        while (running) {
+            try {
+                Thread.sleep(SWEEP_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sweep();
+        }
+    }
+
+    /**
+     * 删除没有连接、令牌已经补满的IP
+     */
+    void sweep() {
+        long now = System.nanoTime();
+        for (InetAddress address : clients.keySet()) {
+            clients.computeIfPresent(address, (a, state) ->
+                    state.connections.get() == 0 && state.tat.get() <= now ? null : state);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl{connections=" + getActiveConnections() + ", clients=" + getTrackedClients() +
+                ", rejectedConnections=" + rejectedConnections.sum() + ", rateLimited=" + rejectedRequests.sum() +
+                ", overloaded=" + overloadedRequests.sum() + "}";
+    }
+
+    /**
+     * 单个IP的状态：令牌桶的理论到达时间（纳秒）和当前连接数
+     */
+    private static final class ClientState {
+        final AtomicLong tat = new AtomicLong(System.nanoTime());
+        final AtomicInteger connections = new AtomicInteger();
+    }
+}
@@ -0,0 +1,321 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志：生产者把日志写进预先分配好的环形缓冲区，一个后台线程成批格式化并写入文件
+ * 生产者只做一次CAS占位和几个字段赋值，不加锁、不做I/O、不格式化；访问日志的字符串在后台线程上拼接。
+ * 缓冲区满时丢弃并计数，日志永远不会阻塞处理请求的线程。
+ * 文件超过maxBytes时轮转：server.log -> server.log.1 -> ... -> server.log.N，最旧的被删除。
+ * 文件路径为null时写到标准输出（仍然由后台线程写）。
+ */
+public class AsyncLogger {
+    /**
+     * 日志级别，低于当前级别的日志在生产者一侧就被丢弃
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF;
+
+        public static Level parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return INFO;
+            }
+            return Level.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private static final int MAX_BATCH = 256;        // 后台线程一次最多处理的条目数
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(); // 下一个要占用的序号
+    private volatile long consumed;                      // 后台线程已经处理完的序号，只由后台线程修改
+    private volatile long flushed;                       // 已经写到文件的序号
+    private final LongAdder dropped = new LongAdder();
+    private volatile Level level;
+    private final boolean accessLog;
+
+    private final Path file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private Writer out;
+    private long fileBytes;                                    // 按字符数估算
+    private final StringBuilder line = new StringBuilder(256); // 只在后台线程上使用
+
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param file       日志文件，null表示标准输出
+     * @param capacity   环形缓冲区条目数（向上取2的幂）
+     * @param maxBytes   单个文件的最大字节数，超过后轮转
+     * @param maxFiles   保留的旧文件个数
+     * @param accessLog  是否记录访问日志
+     */
+    public AsyncLogger(Path file, int capacity, Level level, boolean accessLog, long maxBytes, int maxFiles) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.ring = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry();
+            ring[i].sequence = i - size; // 第一圈之前的序号，表示空
+        }
+        this.mask = size - 1;
+        this.level = level;
+        this.accessLog = accessLog;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.out = openOutput();
+
+        writerThread = new Thread(this::drainLoop, "async-logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && level != Level.OFF;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isAccessLogEnabled() {
+        return accessLog;
+    }
+
+    public void log(Level messageLevel, String message) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        Entry entry = claim();
+        if (entry == null) {
+            return;
+        }
+        entry.time = System.currentTimeMillis();
+        entry.level = messageLevel;
+        entry.message = message;
+        publish(entry);
+    }
+
+    /**
+     * 记录一个请求的访问日志：时间 客户端 "方法 路径 版本" 状态码 响应体字节数 耗时
+     */
+    public void access(InetAddress remote, String method, String path, String version, int status, long bytes,
+                       long nanos) {
+        if (!accessLog) {
+            return;
+        }
+        Entry entry = claim();
+        if (entry == null) {
+            return;
+        }
+        entry.time = System.currentTimeMillis();
+        entry.level = null;
+        entry.remote = remote;
+        entry.method = method;
+        entry.path = path;
+        entry.version = version;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.nanos = nanos;
+        publish(entry);
+    }
+
+    /**
+     * 等待此前写入的日志全部写到文件（最多等timeoutMillis）
+     */
+    public void flush(long timeoutMillis) {
+        long target = claimed.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (flushed < target && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void shutdown() {
+        flush(1000);
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 占用下一个空槽；缓冲区满（后台线程落后一整圈）时返回null
+     */
+    private Entry claim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                dropped.increment();
+                return null;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                Entry entry = ring[(int) (sequence & mask)];
+                entry.claimedSequence = sequence;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 字段写完后再写序号（volatile），后台线程看到序号时字段一定可见
+     */
+    private void publish(Entry entry) {
+        entry.sequence = entry.claimedSequence;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            long next = consumed;
+            int count = 0;
+            while (count < MAX_BATCH) {
+                Entry entry = ring[(int) (next & mask)];
+                if (entry.sequence != next) {
+                    break; // 还没有发布
+                }
+                try {
+                    write(entry);
+                } catch (IOException e) {
+                    System.err.println("写日志失败: " + e.getMessage());
+                }
+                entry.clear();
+                consumed = ++next;
+                count++;
+            }
+            if (count == MAX_BATCH) {
+                continue; // 还有更多日志，攒满缓冲区再写
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("写日志失败: " + e.getMessage());
+            }
+            flushed = next;
+            if (!running && next == claimed.get()) {
+                break;
+            }
+            if (count == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            if (file != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭日志文件失败: " + e.getMessage());
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.time), line);
+        if (entry.level != null) {
+            line.append(' ').append(entry.level).append(' ').append(entry.message);
+        } else {
+            line.append(" ACCESS ").append(entry.remote == null ? "-" : entry.remote.getHostAddress())
+                    .append(" \"").append(entry.method).append(' ').append(entry.path).append(' ')
+                    .append(entry.version).append("\" ").append(entry.status).append(' ');
+            if (entry.bytes < 0) {
+                line.append('-');
+            } else {
+                line.append(entry.bytes);
+            }
+            line.append(' ').append(entry.nanos / 1000).append("us");
+        }
+        line.append('\n');
+        if (file != null && fileBytes + line.length() > maxBytes) {
+            rotate();
+        }
+        out.append(line);
+        fileBytes += line.length();
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, file.resolveSibling(file.getFileName() + "." + (i + 1)),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        out = openOutput();
+    }
+
+    private Writer openOutput() {
+        if (file == null) {
+            return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            fileBytes = Files.exists(file) ? Files.size(file) : 0;
+            return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法打开日志文件 " + file, e);
+        }
+    }
+
+    /**
+     * 环形缓冲区的一个槽，整个生命周期内复用
+     */
+    private static final class Entry {
+        volatile long sequence;
+        long claimedSequence;
+        long time;
+        Level level;        // null表示访问日志
+        String message;
+        InetAddress remote;
+        String method;
+        String path;
+        String version;
+        int status;
+        long bytes;
+        long nanos;
+
+        void clear() {
+            message = null;
+            remote = null;
+            method = null;
+            path = null;
+            version = null;
+        }
+    }
+}
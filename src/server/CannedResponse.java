@@ -0,0 +1,187 @@
+package server;
+
+import shared.HttpConstants;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 预先完整序列化好的不可变响应（错误页、重定向）
+ * 启动时生成，发送时只需把几段现成的字节直接写到socket：
+ * 状态行和Server头部 + 缓存的Date头部 + 其余头部、连接头部、空行和响应体。
+ * 同一个实例被所有连接共享，不能修改；连接头部按发送时是否保持连接选择对应的版本。
+ * 保持连接的版本不带 Keep-Alive: timeout=N：实际超时随负载变化，固定的字节里写不出当前值。
+ * 处理器需要返回HttpResponse时用toResponse()包装：包装出的响应可以修改，修改后就按普通响应序列化。
+ */
+public final class CannedResponse {
+    private static final byte[] KEEP_ALIVE_LINES = ("Connection: keep-alive" + HttpConstants.CRLF)
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE_LINE = ("Connection: close" + HttpConstants.CRLF).getBytes(StandardCharsets.US_ASCII);
+
+    // HttpConstants中每个状态码的默认响应
+    private static final Map<Integer, CannedResponse> STATUS_TABLE = new HashMap<>();
+
+    static {
+        for (int status : HttpConstants.STATUS_MESSAGES.keySet()) {
+            STATUS_TABLE.put(status, statusPage(status));
+        }
+    }
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final byte[] head;          // 状态行 + Server
+    private final byte[] keepAliveTail; // 其余头部 + 保持连接的头部 + 空行 + 响应体
+    private final byte[] closeTail;     // 其余头部 + Connection: close + 空行 + 响应体
+    private final CannedResponse closing;
+
+    private CannedResponse(int statusCode, Map<String, String> headers, byte[] body, boolean alwaysClose) {
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+
+        this.head = concat(ResponseWriter.statusLine(statusCode), ResponseWriter.line("Server", ResponseWriter.SERVER_NAME));
+        StringBuilder fixed = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            fixed.append(header.getKey()).append(": ").append(header.getValue()).append(HttpConstants.CRLF);
+        }
+        byte[] fixedHeaders = fixed.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] crlf = HttpConstants.CRLF.getBytes(StandardCharsets.US_ASCII);
+        this.closeTail = concat(fixedHeaders, CLOSE_LINE, crlf, body);
+        this.keepAliveTail = alwaysClose ? closeTail : concat(fixedHeaders, KEEP_ALIVE_LINES, crlf, body);
+        this.closing = alwaysClose ? this : new CannedResponse(this);
+    }
+
+    /**
+     * 同样内容但总是关闭连接的版本
+     */
+    private CannedResponse(CannedResponse source) {
+        this.statusCode = source.statusCode;
+        this.headers = source.headers;
+        this.body = source.body;
+        this.head = source.head;
+        this.closeTail = source.closeTail;
+        this.keepAliveTail = source.closeTail;
+        this.closing = this;
+    }
+
+    /**
+     * 某个状态码的默认响应（HTML状态页，1xx/204/304没有响应体）
+     */
+    public static CannedResponse of(int statusCode) {
+        CannedResponse response = STATUS_TABLE.get(statusCode);
+        if (response == null) {
+            throw new IllegalArgumentException("No canned response for status " + statusCode);
+        }
+        return response;
+    }
+
+    /**
+     * 重定向响应，启动时为每个配置的重定向生成一次
+     */
+    public static CannedResponse redirect(int statusCode, String location) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Location", location);
+        headers.put("Content-Length", "0");
+        return new CannedResponse(statusCode, headers, new byte[0], false);
+    }
+
+    /**
+     * 带一个额外头部的状态页，例如带Retry-After的503/429
+     */
+    public static CannedResponse withHeader(int statusCode, String name, String value) {
+        Map<String, String> extra = new LinkedHashMap<>();
+        extra.put(name, value);
+        return statusPage(statusCode, extra);
+    }
+
+    private static CannedResponse statusPage(int statusCode) {
+        return statusPage(statusCode, Collections.emptyMap());
+    }
+
+    private static CannedResponse statusPage(int statusCode, Map<String, String> extraHeaders) {
+        Map<String, String> headers = new LinkedHashMap<>(extraHeaders);
+        byte[] body = new byte[0];
+        if (statusCode / 100 != 1 && statusCode != 204 && statusCode != HttpConstants.STATUS_NOT_MODIFIED) {
+            String message = HttpConstants.STATUS_MESSAGES.get(statusCode);
+            String html = "<!DOCTYPE html><html><head><title>" + statusCode + " " + message +
+                    "</title></head><body><h1>" + statusCode + " " + message +
+                    "</h1></body></html>";
+            body = html.getBytes(StandardCharsets.UTF_8);
+            headers.put("Content-Type", "text/html");
+        }
+        headers.put("Content-Length", String.valueOf(body.length));
+        return new CannedResponse(statusCode, headers, body, false);
+    }
+
+    /**
+     * 包装成一个新的HttpResponse，没有修改时发送这里预先序列化好的字节
+     */
+    public HttpResponse toResponse() {
+        return new HttpResponse(this);
+    }
+
+    /**
+     * 返回同样内容、但发送后总是关闭连接的版本
+     */
+    public CannedResponse closing() {
+        return closing;
+    }
+
+    public boolean isAlwaysClose() {
+        return keepAliveTail == closeTail;
+    }
+
+    byte[] getHead() {
+        return head;
+    }
+
+    byte[] getTail(boolean keepAlive) {
+        return keepAlive ? keepAliveTail : closeTail;
+    }
+
+    /**
+     * 直接写出预先序列化好的字节，不flush
+     */
+    void writeTo(OutputStream out, boolean keepAlive) throws IOException {
+        out.write(head);
+        out.write(DateHeader.get());
+        out.write(getTail(keepAlive));
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * 不可修改的头部（不含Server、Date和连接头部）
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * 响应体，调用方不能修改
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import shared.HttpConstants;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * chunked传输编码输出流
+ * 数据先写入固定大小的缓冲区，缓冲区满或flush时作为一个分块发送；
+ * close()只写入结束分块，既不flush也不关闭底层连接
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private static final byte[] CRLF = HttpConstants.CRLF.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = ("0" + HttpConstants.CRLF + HttpConstants.CRLF).getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean finished = false;
+
+    public ChunkedOutputStream(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+    /**
+     * 发送剩余数据和结束分块（0长度分块），可重复调用
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (count > 0) {
+            writeChunk();
+        }
+        out.write(LAST_CHUNK);
+        finished = true;
+    }
+
+    private void writeChunk() throws IOException {
+        ensureOpen();
+        out.write(Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(buffer, 0, count);
+        out.write(CRLF);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Chunked stream already finished");
+        }
+    }
+}
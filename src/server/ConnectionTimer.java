@@ -0,0 +1,270 @@
+package server;
+
+import shared.HttpConstants;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有连接共用的超时管理（哈希时间轮）
+ * 每个连接一个Timeout，按读取阶段设置截止时间：
+ * 等待下一个请求（keep-alive空闲）、读请求头、读请求体，处理请求期间没有截止时间。
+ * 请求头和请求体的截止时间从该阶段开始时算起，数据一点点到达也不会延长，用来防御slowloris。
+ *
+ * 截止时间只是一次volatile写，不用从轮子上删除再插入：桶到期时才检查条目当前的截止时间，
+ * 还没到期的放到新截止时间对应的桶里，已取消的直接丢掉。后台线程每个tick只处理一个桶，
+ * 超时的连接成批关闭，不需要每个连接一个阻塞线程等SO_TIMEOUT。
+ *
+ * keep-alive空闲超时随连接数自适应：连接数超过容量的一半后线性缩短，满载时只剩最小值。
+ */
+public class ConnectionTimer {
+    private static final long NONE = Long.MAX_VALUE;      // 没有截止时间（正在处理请求）
+    private static final long CANCELLED = Long.MIN_VALUE; // 连接已关闭，下次到桶时丢弃
+    private static final int WHEEL_SIZE = 512;            // 必须是2的幂
+
+    private static final int IDLE = 0;
+    private static final int HEADER = 1;
+    private static final int BODY = 2;
+    private static final int BUSY = 3;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedQueue<Timeout>[] wheel = new ConcurrentLinkedQueue[WHEEL_SIZE];
+    private final long tickMillis;
+    private final int capacity;
+    private final long startMillis;
+    private volatile long currentTick; // 已经处理过的最后一个tick，只由expire()修改
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger(); // 处于keep-alive空闲阶段的连接数
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity 服务器能同时承载的连接数，keep-alive超时按 当前连接数/capacity 缩短
+     */
+    public ConnectionTimer(int capacity) {
+        this(HttpConstants.TIMER_TICK, capacity, true);
+    }
+
+    /**
+     * @param startTicker 是否启动后台线程；为false时由调用者调用expire（基准测试用）
+     */
+    public ConnectionTimer(long tickMillis, int capacity, boolean startTicker) {
+        this.tickMillis = tickMillis;
+        this.capacity = Math.max(1, capacity);
+        this.startMillis = System.currentTimeMillis();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        if (startTicker) {
+            ticker = new Thread(() -> {
+                while (running) {
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    expire(System.currentTimeMillis());
+                }
+            }, "connection-timer");
+            ticker.setDaemon(true);
+            ticker.start();
+        } else {
+            ticker = null;
+        }
+    }
+
+    /**
+     * 为新连接创建超时句柄，初始状态是等待第一个请求；onTimeout在计时线程上调用
+     */
+    public Timeout register(Runnable onTimeout) {
+        active.incrementAndGet();
+        Timeout timeout = new Timeout(onTimeout);
+        timeout.awaitRequest(false, false);
+        return timeout;
+    }
+
+    /**
+     * 当前的keep-alive空闲超时（毫秒）
+     */
+    public long keepAliveTimeout() {
+        long max = HttpConstants.KEEP_ALIVE_TIMEOUT;
+        long min = Math.min(max, HttpConstants.KEEP_ALIVE_MIN_TIMEOUT);
+        double load = (double) active.get() / capacity;
+        if (load <= 0.5) {
+            return max;
+        }
+        double scale = Math.min(1.0, (load - 0.5) * 2); // 0.5 -> 0, 1.0 -> 1
+        return max - (long) ((max - min) * scale);
+    }
+
+    /**
+     * 处理到now为止所有到期的tick，返回超时的连接数；后台线程每个tick调用一次
+     */
+    public synchronized int expire(long now) {
+        long target = (now - startMillis) / tickMillis;
+        int expired = 0;
+        while (currentTick < target) {
+            long tick = currentTick + 1;
+            int index = (int) (tick & (WHEEL_SIZE - 1));
+            Iterator<Timeout> bucket = wheel[index].iterator();
+            while (bucket.hasNext()) {
+                Timeout timeout = bucket.next();
+                long deadline = timeout.deadline;
+                if (deadline != CANCELLED && deadline != NONE && deadline > now) {
+                    // 截止时间推后了：移到对应的桶，正好落在本桶（相差整圈）时留到下一圈
+                    if ((tickOf(deadline) & (WHEEL_SIZE - 1)) != index) {
+                        bucket.remove();
+                        add(timeout, deadline);
+                    }
+                    continue;
+                }
+                bucket.remove();
+                timeout.queued.set(false);
+                if (deadline == CANCELLED) {
+                    continue;
+                }
+                if (deadline != NONE && timeout.deadline == deadline) {
+                    timeout.expired = true;
+                    expired++;
+                    timeout.onTimeout.run();
+                } else {
+                    timeout.requeueIfNeeded(); // 连接线程可能刚设置了新的截止时间
+                }
+            }
+            currentTick = tick;
+        }
+        return expired;
+    }
+
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    /**
+     * 正在等待下一个请求（还没收到任何数据）的连接数
+     */
+    public int getIdleConnections() {
+        return idle.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+    }
+
+    private long tickOf(long deadline) {
+        // 向上取整，保证不会提前超时；已经处理过的tick不能再放
+        return Math.max((deadline - startMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+    }
+
+    private void add(Timeout timeout, long deadline) {
+        wheel[(int) (tickOf(deadline) & (WHEEL_SIZE - 1))].add(timeout);
+    }
+
+    /**
+     * 单个连接的截止时间；awaitRequest/busy/cancel只由连接自己的线程调用
+     */
+    public final class Timeout {
+        private final Runnable onTimeout;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private volatile long deadline = NONE;
+        private volatile boolean expired;
+        private int phase = -1;
+
+        private Timeout(Runnable onTimeout) {
+            this.onTimeout = onTimeout;
+        }
+
+        /**
+         * 等待请求数据：根据解析器状态进入空闲、读请求头或读请求体阶段，
+         * 只有阶段变化时才重新计算截止时间
+         */
+        public void awaitRequest(RequestParser parser) {
+            awaitRequest(parser.hasBufferedData(), parser.isReadingBody());
+        }
+
+        private void awaitRequest(boolean hasData, boolean readingBody) {
+            int next = readingBody ? BODY : hasData ? HEADER : IDLE;
+            if (next == phase || deadline == CANCELLED) {
+                return;
+            }
+            enter(next);
+            long now = System.currentTimeMillis();
+            if (next == IDLE) {
+                schedule(now + keepAliveTimeout());
+            } else if (next == HEADER) {
+                schedule(now + HttpConstants.HEADER_TIMEOUT);
+            } else {
+                schedule(now + HttpConstants.BODY_TIMEOUT);
+            }
+        }
+
+        /**
+         * 正在处理请求或发送响应，没有截止时间
+         */
+        public void busy() {
+            enter(BUSY);
+            deadline = NONE;
+        }
+
+        /**
+         * 连接关闭时调用，可以重复调用
+         */
+        public void cancel() {
+            if (deadline != CANCELLED) {
+                deadline = CANCELLED;
+                active.decrementAndGet();
+                enter(BUSY);
+            }
+        }
+
+        /**
+         * 是否因为超时被关闭
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * 截止时间是否已过（NIO模式在事件循环上再确认一次，期间连接可能刚好变得活跃）
+         */
+        public boolean isPastDeadline() {
+            long current = deadline;
+            return current != NONE && current != CANCELLED && current <= System.currentTimeMillis();
+        }
+
+        /**
+         * 切换阶段，同时维护空闲连接数
+         */
+        private void enter(int next) {
+            if (phase == IDLE && next != IDLE) {
+                idle.decrementAndGet();
+            } else if (phase != IDLE && next == IDLE) {
+                idle.incrementAndGet();
+            }
+            phase = next;
+        }
+
+        private void schedule(long newDeadline) {
+            if (deadline == CANCELLED) {
+                return;
+            }
+            deadline = newDeadline;
+            requeueIfNeeded();
+        }
+
+        /**
+         * 不在轮子上时放回去；已经在轮子上的条目到桶时会按新的截止时间移动
+         */
+        private void requeueIfNeeded() {
+            long current = deadline;
+            if (current != NONE && current != CANCELLED && queued.compareAndSet(false, true)) {
+                add(this, current);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package server;
+
+import shared.HttpUtils;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HttpRequest {
+    private String method;
+    private String path;
+    private String version;
+
+    // 手动构造的请求使用头部表
+    private Map<String, String> headers;
+
+    // 解析得到的请求只记录原始缓冲区中的偏移量（相对于base）
+    private byte[] raw;
+    private int base;
+    private int[] headerOffsets = new int[64];
+    private String[] headerValues = new String[16];
+    private int headerCount;
+    private int queryStart = -1;
+    private int queryEnd;
+    private int bodyStart;
+    private int bodyLength;
+
+    private Map<String, String> queryParams;
+    private Map<String, String> bodyParams;
+    private Map<String, String> pathParams; // 路由模式中的{参数}，由Router设置
+    private String route;                   // 匹配到的路由模式，由Router设置，用于按路由统计
+    private String body;
+    private InetAddress remoteAddress; // 客户端地址，同一连接上的请求共用，reset时保留
+
+    /**
+     * 供解析器复用的空请求
+     */
+    HttpRequest() {
+    }
+
+    public HttpRequest(String method, String path, String version) {
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.headers = new HashMap<>();
+        this.queryParams = new HashMap<>();
+        this.bodyParams = new HashMap<>();
+    }
+
+    void reset(byte[] raw, int base, String method, String path, String version) {
+        this.raw = raw;
+        this.base = base;
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.headers = null;
+        for (int i = 0; i < headerCount; i++) {
+            headerValues[i] = null;
+        }
+        this.headerCount = 0;
+        this.queryStart = -1;
+        this.bodyLength = 0;
+        this.queryParams = null;
+        this.bodyParams = null;
+        this.pathParams = null;
+        this.route = null;
+        this.body = null;
+    }
+
+    /**
+     * 解析器移动或扩容缓冲区后更新引用
+     */
+    void rebase(byte[] raw, int base) {
+        if (this.raw != null) {
+            this.raw = raw;
+            this.base = base;
+        }
+    }
+
+    void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int offset = headerCount * 4;
+        if (offset + 4 > headerOffsets.length) {
+            int[] larger = new int[headerOffsets.length * 2];
+            System.arraycopy(headerOffsets, 0, larger, 0, headerOffsets.length);
+            headerOffsets = larger;
+            String[] values = new String[headerValues.length * 2];
+            System.arraycopy(headerValues, 0, values, 0, headerValues.length);
+            headerValues = values;
+        }
+        headerOffsets[offset] = nameStart;
+        headerOffsets[offset + 1] = nameEnd;
+        headerOffsets[offset + 2] = valueStart;
+        headerOffsets[offset + 3] = valueEnd;
+        headerCount++;
+    }
+
+    void setQueryRange(int start, int end) {
+        this.queryStart = start;
+        this.queryEnd = end;
+    }
+
+    void setBodyRange(int start, int length) {
+        this.bodyStart = start;
+        this.bodyLength = length;
+    }
+
+    // Getters and Setters
+    public String getMethod() { return method; }
+    public String getPath() { return path; }
+    public String getVersion() { return version; }
+
+    public String getHeader(String name) {
+        if (headers != null) {
+            return headers.get(name.toLowerCase());
+        }
+        for (int i = 0; i < headerCount; i++) {
+            int offset = i * 4;
+            if (equalsIgnoreCase(raw, base + headerOffsets[offset], base + headerOffsets[offset + 1], name)) {
+                if (headerValues[i] == null) {
+                    int valueStart = headerOffsets[offset + 2];
+                    headerValues[i] = new String(raw, base + valueStart, headerOffsets[offset + 3] - valueStart,
+                            StandardCharsets.ISO_8859_1);
+                }
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
+
+    public void setHeader(String name, String value) {
+        getHeaders().put(name.toLowerCase(), value);
+    }
+
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                int offset = i * 4;
+                String name = new String(raw, base + headerOffsets[offset],
+                        headerOffsets[offset + 1] - headerOffsets[offset], StandardCharsets.ISO_8859_1);
+                int valueStart = headerOffsets[offset + 2];
+                headers.put(name.toLowerCase(), new String(raw, base + valueStart,
+                        headerOffsets[offset + 3] - valueStart, StandardCharsets.ISO_8859_1));
+            }
+        }
+        return headers;
+    }
+
+    public Map<String, String> getQueryParams() {
+        if (queryParams == null) {
+            queryParams = queryStart < 0 ? new HashMap<>() : HttpUtils.parseQueryString(
+                    new String(raw, base + queryStart, queryEnd - queryStart, StandardCharsets.UTF_8));
+        }
+        return queryParams;
+    }
+    public void setQueryParams(Map<String, String> queryParams) {
+        this.queryParams = queryParams;
+    }
+
+    /**
+     * 路由匹配得到的路径参数，例如 /users/{id} 中的id
+     */
+    public String getPathParam(String name) {
+        return pathParams == null ? null : pathParams.get(name);
+    }
+
+    public Map<String, String> getPathParams() {
+        return pathParams == null ? Collections.emptyMap() : pathParams;
+    }
+
+    void setPathParams(Map<String, String> pathParams) {
+        this.pathParams = pathParams;
+    }
+
+    /**
+     * 匹配到的路由模式（例如 /users/{id}），交给fallback时为Router.FALLBACK_ROUTE，没有经过路由时为null
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    /**
+     * 客户端IP地址，手动构造的请求为null
+     */
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    void setRemoteAddress(InetAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Cookie头部中某个cookie的值，没有时返回null
+     */
+    public String getCookie(String name) {
+        return HttpUtils.parseCookie(getHeader("Cookie"), name);
+    }
+
+    public Map<String, String> getBodyParams() {
+        if (bodyParams == null) {
+            String contentType = getHeader("Content-Type");
+            if (contentType != null && contentType.contains("application/x-www-form-urlencoded")) {
+                bodyParams = HttpUtils.parseQueryString(getBody());
+            } else {
+                bodyParams = new HashMap<>();
+            }
+        }
+        return bodyParams;
+    }
+    public void setBodyParams(Map<String, String> bodyParams) {
+        this.bodyParams = bodyParams;
+    }
+
+    public String getBody() {
+        if (body == null && raw != null && bodyLength > 0) {
+            body = new String(raw, base + bodyStart, bodyLength, StandardCharsets.UTF_8);
+        }
+        return body;
+    }
+    public void setBody(String body) { this.body = body; }
+
+    /**
+     * 比较缓冲区中的ASCII字节与字符串（忽略大小写）
+     */
+    static boolean equalsIgnoreCase(byte[] bytes, int from, int to, String expected) {
+        if (to - from != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            int a = bytes[from + i];
+            int b = expected.charAt(i);
+            if (a != b && toLower(a) != toLower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
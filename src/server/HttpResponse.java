@@ -0,0 +1,119 @@
+package server;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 服务器端的HTTP响应
+ */
+public class HttpResponse {
+    private int statusCode;
+    private Map<String, String> headers;
+    private byte[] body;
+    private Path bodyFile;   // 文件响应体，发送时直接从文件读取
+    private long bodyOffset;
+    private long bodyLength;
+    private StreamingBody streamingBody; // 流式响应体
+    private boolean chunked = true;      // HTTP/1.0客户端不支持chunked，此时靠关闭连接结束响应体
+    private CannedResponse canned;       // 预先序列化好的内容，响应被修改后置为null
+    
+    public HttpResponse(int statusCode) {
+        this.statusCode = statusCode;
+        this.headers = new HashMap<>();
+        this.body = new byte[0];
+    }
+
+    /**
+     * 由预先序列化好的响应包装而来：头部先共享canned的只读Map，第一次修改时才复制
+     */
+    HttpResponse(CannedResponse canned) {
+        this.statusCode = canned.getStatusCode();
+        this.headers = canned.getHeaders();
+        this.body = canned.getBody();
+        this.canned = canned;
+    }
+    
+    // Getters and Setters
+    public int getStatusCode() { return statusCode; }
+    public void setStatusCode(int statusCode) {
+        modify();
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * 可修改的头部；对包装的预序列化响应调用时，之后就按普通响应序列化
+     */
+    public Map<String, String> getHeaders() {
+        modify();
+        return headers;
+    }
+
+    /**
+     * 没有被修改过的预序列化响应，其余情况返回null
+     */
+    public CannedResponse getCanned() { return canned; }
+    
+    // 修复：不转换大小写，保持原始头部名称
+    public String getHeader(String name) { 
+        // 先尝试精确匹配
+        String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        // 如果没有找到，尝试小写匹配（向后兼容）
+        return headers.get(name.toLowerCase());
+    }
+    
+    public void setHeader(String name, String value) {
+        modify();
+        // 保持原始头部名称，不转换为小写
+        headers.put(name, value);
+    }
+    
+    public void setHeaderIfAbsent(String name, String value) {
+        modify();
+        headers.putIfAbsent(name, value);
+    }
+    
+    public byte[] getBody() { return body; }
+    public void setBody(byte[] body) {
+        modify();
+        this.body = body;
+    }
+
+    public Path getBodyFile() { return bodyFile; }
+    public long getBodyOffset() { return bodyOffset; }
+    public long getBodyLength() { return bodyLength; }
+
+    public StreamingBody getStreamingBody() { return streamingBody; }
+    public boolean isChunked() { return chunked; }
+    public void setChunked(boolean chunked) { this.chunked = chunked; }
+
+    /**
+     * 设置流式响应体；没有设置Content-Length时用chunked编码发送
+     */
+    public void setStreamingBody(StreamingBody streamingBody) {
+        modify();
+        this.streamingBody = streamingBody;
+        this.body = new byte[0];
+    }
+
+    public void setFileBody(Path file, long offset, long length) {
+        modify();
+        this.bodyFile = file;
+        this.bodyOffset = offset;
+        this.bodyLength = length;
+        this.body = new byte[0];
+    }
+
+    /**
+     * 修改前调用：放弃预先序列化好的内容，复制共享的头部
+     */
+    private void modify() {
+        if (canned != null) {
+            headers = new HashMap<>(headers);
+            canned = null;
+        }
+    }
+}
\ No newline at end of file
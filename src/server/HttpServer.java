@@ -2,40 +2,118 @@ package server;
 
 import shared.HttpConstants;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServer {
-    private ServerSocket serverSocket;
+    /**
+     * 连接处理模式
+     * BLOCKING: 每个连接占用线程池中的一个线程（默认）
+     * VIRTUAL: 每个连接一个虚拟线程，阻塞读取时只挂起虚拟线程（需要JDK 21+）
+     * NIO: Selector事件循环复用连接，只有完整的请求才交给线程池
+     */
+    public enum Mode {
+        BLOCKING, VIRTUAL, NIO;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return BLOCKING;
+            }
+            return Mode.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private ServerSocketChannel serverChannel;
+    private NioServer nioServer;
     private ExecutorService threadPool;
-    private boolean isRunning;
+    private volatile boolean isRunning;
     private UserManager userManager;
+    private SessionStore sessions;
+    private AdmissionControl admission;
+    private ConnectionTimer timer;
+    private Metrics metrics;
+    private RequestProcessor processor;
+    private Mode mode;
+    private int port;
 
     public HttpServer() {
+        this(Mode.BLOCKING, HttpConstants.SERVER_PORT);
+    }
+
+    public HttpServer(Mode mode, int port) {
+        this(mode, port, new AdmissionControl());
+    }
+
+    public HttpServer(Mode mode, int port, AdmissionControl admission) {
+        this.mode = mode;
+        this.port = port;
         this.userManager = new UserManager();
+        this.sessions = new SessionStore(HttpConstants.SESSION_TTL * 1000L, HttpConstants.SESSION_TICK, true);
+        this.admission = admission;
+        // 阻塞模式下每个连接占用一个工作线程，容量就是工作线程数
+        this.timer = new ConnectionTimer(mode == Mode.BLOCKING ? HttpConstants.WORKER_THREADS : HttpConstants.MAX_CONNECTIONS);
+        this.metrics = new Metrics(admission, timer);
+        this.processor = new RequestProcessor(userManager, sessions, admission, metrics, timer);
     }
 
     public void start() {
         try {
-            serverSocket = new ServerSocket(HttpConstants.SERVER_PORT);
-            threadPool = Executors.newFixedThreadPool(10);
+            threadPool = mode == Mode.VIRTUAL
+                    ? newVirtualThreadExecutor()
+                    : newBoundedThreadPool();
+            metrics.setWorkers(threadPool);
             isRunning = true;
-            
-            System.out.println("HTTP Server started on port " + HttpConstants.SERVER_PORT);
+
+            System.out.println("HTTP Server started on port " + port + " (mode: " + mode + ")");
             System.out.println("Webroot: ./webroot");
-            System.out.println("Access: http://localhost:" + HttpConstants.SERVER_PORT);
-            
+            System.out.println("Access: http://localhost:" + port);
+
+            if (mode == Mode.NIO) {
+                nioServer = new NioServer(port, processor, threadPool, admission, timer);
+                nioServer.start();
+                return;
+            }
+
+            // 通过通道接收连接，使Socket带有可用于transferTo的SocketChannel
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
             while (isRunning) {
-                Socket clientSocket = serverSocket.accept();
-                // 设置Socket超时，支持长连接
-                clientSocket.setSoTimeout(HttpConstants.KEEP_ALIVE_TIMEOUT);
-                threadPool.execute(new RequestHandler(clientSocket, userManager));
+                SocketChannel channel = serverChannel.accept();
+                Socket clientSocket = channel.socket();
+                InetAddress address = clientSocket.getInetAddress();
+                // 连接数超过上限时在接收线程上直接拒绝
+                CannedResponse rejection = admission.admit(address);
+                if (rejection != null) {
+                    ServerEvents.accepted(address, rejection.getStatusCode());
+                    AdmissionControl.reject(channel, rejection);
+                    continue;
+                }
+                RequestHandler handler = new RequestHandler(clientSocket, processor, admission, timer);
+                try {
+                    threadPool.execute(handler);
+                    ServerEvents.accepted(address, 0);
+                } catch (RejectedExecutionException e) {
+                    // 工作队列已满
+                    handler.abandon();
+                    ServerEvents.accepted(address, HttpConstants.STATUS_SERVICE_UNAVAILABLE);
+                    AdmissionControl.reject(channel, admission.overloaded());
+                }
             }
-            
+
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
+            if (isRunning) {
+                System.err.println("Server error: " + e.getMessage());
+            }
         } finally {
             stop();
         }
@@ -44,26 +122,65 @@ public class HttpServer {
     public void stop() {
         isRunning = false;
         try {
-            if (serverSocket != null) {
-                serverSocket.close();
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (nioServer != null) {
+                nioServer.stop();
             }
             if (threadPool != null) {
                 threadPool.shutdown();
             }
+            userManager.shutdown();
+            sessions.shutdown();
+            admission.shutdown();
+            timer.shutdown();
         } catch (IOException e) {
             System.err.println("Error stopping server: " + e.getMessage());
         }
     }
 
+    /**
+     * 固定数量的工作线程加有界队列，队列满时execute抛出RejectedExecutionException，
+     * 由调用方返回503，而不是让等待的任务无限堆积
+     */
+    private static ExecutorService newBoundedThreadPool() {
+        return new ThreadPoolExecutor(HttpConstants.WORKER_THREADS, HttpConstants.WORKER_THREADS,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HttpConstants.MAX_QUEUED_WORK));
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器
+     * 通过反射获取，以便项目仍能在JDK 21之前的版本上编译；
+     * 运行时不支持虚拟线程时退化为每连接一个平台线程
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("当前JDK不支持虚拟线程，改为每连接一个平台线程");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * 用法: java server.HttpServer [blocking|virtual|nio]
+     * 也可以通过 -Dhttp.server.mode=nio 指定
+     */
     public static void main(String[] args) {
-        HttpServer server = new HttpServer();
-        
+        String modeName = args.length > 0 ? args[0] : System.getProperty("http.server.mode");
+        HttpServer server = new HttpServer(Mode.parse(modeName), HttpConstants.SERVER_PORT);
+
         // 添加关闭钩子
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down server...");
             server.stop();
+            System.out.println("Static file cache: " + ResponseBuilder.getFileCache());
+            System.out.println("Admission: " + server.admission);
+            Log.flush();
         }));
-        
+
         server.start();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package server;
+
+import shared.HttpConstants;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+
+/**
+ * 服务器日志入口，所有方法都是非阻塞的（见AsyncLogger）
+ * 默认级别INFO：每个请求的调试信息（DEBUG）不记录，访问日志每个请求一行。
+ * 拼接开销较大的调试信息先用isDebugEnabled()判断。
+ */
+public final class Log {
+    private static final AsyncLogger LOGGER = new AsyncLogger(
+            HttpConstants.LOG_FILE.isEmpty() ? null : Paths.get(HttpConstants.LOG_FILE),
+            HttpConstants.LOG_BUFFER_SIZE, AsyncLogger.Level.parse(HttpConstants.LOG_LEVEL),
+            HttpConstants.ACCESS_LOG, HttpConstants.LOG_MAX_BYTES, HttpConstants.LOG_MAX_FILES);
+
+    private Log() {
+    }
+
+    public static boolean isDebugEnabled() {
+        return LOGGER.isEnabled(AsyncLogger.Level.DEBUG);
+    }
+
+    public static void debug(String message) {
+        LOGGER.log(AsyncLogger.Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        LOGGER.log(AsyncLogger.Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        LOGGER.log(AsyncLogger.Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        LOGGER.log(AsyncLogger.Level.ERROR, message);
+    }
+
+    /**
+     * 请求处理完成后记录访问日志
+     * @param startNanos 开始处理请求时的System.nanoTime()
+     */
+    public static void access(HttpRequest request, HttpResponse response, long startNanos) {
+        if (!LOGGER.isAccessLogEnabled()) {
+            return;
+        }
+        long bytes;
+        if (response.getBodyFile() != null) {
+            bytes = response.getBodyLength();
+        } else if (response.getStreamingBody() != null) {
+            bytes = -1; // 流式响应事先不知道长度
+        } else {
+            bytes = response.getBody() == null ? 0 : response.getBody().length;
+        }
+        InetAddress remote = request.getRemoteAddress();
+        LOGGER.access(remote, request.getMethod(), request.getPath(), request.getVersion(),
+                response.getStatusCode(), bytes, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 等待已经写入的日志落盘，关闭服务器时调用
+     */
+    public static void flush() {
+        LOGGER.flush(1000);
+    }
+
+    public static long getDropped() {
+        return LOGGER.getDropped();
+    }
+}
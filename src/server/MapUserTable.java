@@ -0,0 +1,41 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * 基于ConcurrentHashMap的用户表
+ */
+public class MapUserTable implements UserTable {
+    private final ConcurrentHashMap<String, String> users = new ConcurrentHashMap<>();
+
+    @Override
+    public String get(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public String putIfAbsent(String username, String credential) {
+        return users.putIfAbsent(username, credential);
+    }
+
+    @Override
+    public void put(String username, String credential) {
+        users.put(username, credential);
+    }
+
+    @Override
+    public boolean remove(String username, String credential) {
+        return users.remove(username, credential);
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        users.forEach(action);
+    }
+}
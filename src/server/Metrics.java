@@ -0,0 +1,182 @@
+package server;
+
+import shared.HttpConstants;
+import shared.Histogram;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务器运行指标，通过 /metrics 以Prometheus文本格式输出
+ * 按路由统计请求数（细分到状态码）和处理耗时分布，另有收发字节数、打开/空闲连接数、
+ * 每个连接处理的请求数分布和工作队列长度。
+ * 记录路径上只有无锁的计数器和直方图：一个请求是一次哈希表查找加几次原子自增，
+ * 连接数、队列长度这类瞬时值在输出时才读取。
+ */
+public class Metrics {
+    public static final String UNROUTED = "unrouted"; // 没有经过路由的请求（405、429等）
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final int MAX_STATUS = 600;
+
+    private final ConcurrentHashMap<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final Histogram requestsPerConnection = new Histogram();
+    private final AdmissionControl admission;
+    private final ConnectionTimer timer;
+    private volatile ExecutorService workers;
+
+    public Metrics(AdmissionControl admission, ConnectionTimer timer) {
+        this.admission = admission;
+        this.timer = timer;
+    }
+
+    /**
+     * 工作线程池在服务器启动时才创建
+     */
+    void setWorkers(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * 一个请求处理完成
+     * @param startNanos 开始处理请求时的System.nanoTime()
+     */
+    public void recordRequest(HttpRequest request, HttpResponse response, long startNanos) {
+        String route = request.getRoute();
+        RouteStats stats = routes.get(route == null ? UNROUTED : route);
+        if (stats == null) {
+            stats = routes.computeIfAbsent(route == null ? UNROUTED : route, r -> new RouteStats());
+        }
+        stats.latency.record(System.nanoTime() - startNanos);
+        int status = response.getStatusCode();
+        stats.statuses.incrementAndGet(status >= 0 && status < MAX_STATUS ? status : 0);
+    }
+
+    /**
+     * 连接关闭，requests是这个连接上处理的请求数
+     */
+    public void recordConnection(int requests) {
+        connections.increment();
+        requestsPerConnection.record(requests);
+    }
+
+    public void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Prometheus文本格式（version 0.0.4）
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, RouteStats> sorted = new TreeMap<>(routes);
+        Map<String, Histogram.Snapshot> latencies = new TreeMap<>();
+        for (Map.Entry<String, RouteStats> entry : sorted.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().latency.snapshot());
+        }
+
+        header(out, "http_requests_total", "counter", "Requests handled, by route and status code");
+        for (Map.Entry<String, RouteStats> entry : sorted.entrySet()) {
+            AtomicLongArray statuses = entry.getValue().statuses;
+            for (int status = 0; status < MAX_STATUS; status++) {
+                long count = statuses.get(status);
+                if (count > 0) {
+                    out.append("http_requests_total{route=\"").append(escape(entry.getKey()))
+                            .append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+
+        header(out, "http_request_duration_seconds", "summary",
+                "Time from a complete request to a serialized response, by route");
+        for (Map.Entry<String, Histogram.Snapshot> entry : latencies.entrySet()) {
+            String label = "route=\"" + escape(entry.getKey()) + "\"";
+            summary(out, "http_request_duration_seconds", label, entry.getValue(), 1e9);
+        }
+
+        header(out, "http_received_bytes_total", "counter", "Bytes read from client connections");
+        sample(out, "http_received_bytes_total", bytesIn.sum());
+        header(out, "http_sent_bytes_total", "counter", "Bytes written to client connections");
+        sample(out, "http_sent_bytes_total", bytesOut.sum());
+
+        int open = admission.getActiveConnections();
+        int idle = timer.getIdleConnections();
+        header(out, "http_connections_open", "gauge", "Accepted connections that are not closed yet");
+        sample(out, "http_connections_open", open);
+        header(out, "http_connections_idle", "gauge", "Keep-alive connections waiting for the next request");
+        sample(out, "http_connections_idle", idle);
+        header(out, "http_connections_closed_total", "counter", "Connections closed after being served");
+        sample(out, "http_connections_closed_total", connections.sum());
+
+        header(out, "http_requests_per_connection", "summary", "Requests served on each closed connection");
+        summary(out, "http_requests_per_connection", null, requestsPerConnection.snapshot(), 1);
+        header(out, "http_max_requests_per_connection", "gauge", "Configured keep-alive request limit");
+        sample(out, "http_max_requests_per_connection", HttpConstants.MAX_REQUESTS_PER_CONNECTION);
+
+        ExecutorService pool = workers;
+        if (pool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+            header(out, "http_worker_queue_depth", "gauge", "Tasks waiting for a worker thread");
+            sample(out, "http_worker_queue_depth", executor.getQueue().size());
+            header(out, "http_worker_queue_capacity", "gauge", "Maximum queued tasks before returning 503");
+            sample(out, "http_worker_queue_capacity", HttpConstants.MAX_QUEUED_WORK);
+            header(out, "http_worker_threads_busy", "gauge", "Worker threads running a task");
+            sample(out, "http_worker_threads_busy", executor.getActiveCount());
+        }
+
+        header(out, "log_dropped_total", "counter", "Log entries dropped because the log buffer was full");
+        sample(out, "log_dropped_total", Log.getDropped());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * summary：各分位数、总和与个数；记录的值除以divisor得到输出单位
+     */
+    private static void summary(StringBuilder out, String name, String labels, Histogram.Snapshot snapshot,
+                                double divisor) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(format(snapshot.percentile(quantile), divisor)).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(format(snapshot.getSum(), divisor))
+                .append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(snapshot.getCount()).append('\n');
+    }
+
+    private static String format(long value, double divisor) {
+        return divisor == 1 ? Long.toString(value) : Double.toString(value / divisor);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 单个路由的统计：耗时分布（纳秒）和按状态码的计数
+     */
+    private static final class RouteStats {
+        final Histogram latency = new Histogram();
+        final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+    }
+}
@@ -0,0 +1,540 @@
+package server;
+
+import shared.HttpConstants;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * NIO模式下的单个连接
+ * 除handle()在工作线程上运行外，其余方法都只在所属事件循环线程上调用
+ */
+class NioConnection {
+    private static final int MAX_BATCH = 64; // 一批最多攒多少个待发送片段
+
+    private SocketChannel channel;
+    private InetAddress remoteAddress;
+    private NioEventLoop loop;
+    private SelectionKey key;
+    private RequestParser parser = new RequestParser();
+    private ResponseWriter writer = new ResponseWriter(); // 只在处理请求的工作线程上使用
+    private ArrayDeque<Object> pendingWrites = new ArrayDeque<>(); // ByteBuffer或FileRegion
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_BATCH]; // gathering write用的数组，只在事件循环上使用
+    private boolean processing = false; // 是否有请求正在工作线程上处理
+    private boolean closeAfterWrite = false;
+    private boolean streaming = false;  // 流式响应还没有生成完
+    private volatile boolean closed = false;
+    private final Object streamLock = new Object();
+    private long streamPending = 0;     // 工作线程已交出但尚未写入socket的字节数，受streamLock保护
+    private int requestCount = 0;       // 只在处理请求的工作线程上修改
+    private final ConnectionTimer.Timeout timeout;
+    private final ServerEvents.ConnectionEvent connectionEvent;
+    private ServerEvents.RequestEvent requestEvent;         // 正在读取的请求，没有在录制时为null
+    private long parseStart;
+    private List<ServerEvents.RequestEvent> unwritten;      // 已处理、响应还没发送完的请求
+
+    NioConnection(SocketChannel channel, InetAddress remoteAddress, NioEventLoop loop) {
+        this.channel = channel;
+        this.remoteAddress = remoteAddress;
+        this.loop = loop;
+        parser.setRemoteAddress(remoteAddress);
+        // 超时在计时线程上触发，交回事件循环再确认一次后关闭
+        this.timeout = loop.getTimer().register(() -> loop.execute(this::onTimeout));
+        this.connectionEvent = ServerEvents.beginConnection();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    void onReadable() throws IOException {
+        int n;
+        try {
+            n = parser.fill(channel);
+        } catch (BadRequestException e) {
+            rejectBadRequest();
+            return;
+        }
+        if (n < 0) {
+            close(); // 客户端关闭连接
+            return;
+        }
+        metrics().addBytesIn(n);
+        if (requestEvent == null && (requestEvent = ServerEvents.beginRequest()) != null) {
+            parseStart = System.nanoTime(); // 从第一批数据到达算起，不包括keep-alive空闲等待
+        }
+        tryDispatch();
+    }
+
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * 如果缓冲区里已经有一个完整的请求，就交给工作线程处理
+     */
+    private void tryDispatch() {
+        if (processing || closed) {
+            return;
+        }
+        HttpRequest request;
+        try {
+            request = parser.next();
+        } catch (IOException e) {
+            rejectBadRequest();
+            return;
+        }
+        if (request == null) {
+            timeout.awaitRequest(parser); // 按解析器状态进入空闲/读请求头/读请求体阶段
+            return;
+        }
+
+        processing = true;
+        timeout.busy();
+        key.interestOps(0); // 处理期间不再读取，保证响应顺序，也保证解析器缓冲区不被改动
+        ServerEvents.RequestEvent event = requestEvent;
+        long parsed = parseStart;
+        requestEvent = null;
+        try {
+            loop.getWorkers().execute(() -> handle(request, event, parsed));
+        } catch (RejectedExecutionException e) {
+            // 工作队列已满：在事件循环上直接返回503并关闭
+            List<Object> output = new ArrayList<>();
+            addCanned(output, loop.getAdmission().overloaded(), false);
+            onResponse(output, false, null);
+        }
+    }
+
+    /**
+     * 请求格式错误：返回400并在发送后关闭连接
+     */
+    private void rejectBadRequest() {
+        processing = true;
+        timeout.busy();
+        key.interestOps(0);
+        List<Object> output = new ArrayList<>();
+        addCanned(output, ResponseBuilder.cannedError(HttpConstants.STATUS_BAD_REQUEST), false);
+        onResponse(output, false, null);
+    }
+
+    /**
+     * 在工作线程上处理请求并序列化响应
+     * 客户端流水线发送时，缓冲区里已经完整到达的后续请求也在这里依次处理，
+     * 所有响应按顺序攒成一批交给事件循环，用gathering write一起发送
+     */
+    private void handle(HttpRequest request, ServerEvents.RequestEvent event, long parseStart) {
+        List<Object> output = new ArrayList<>(); // ByteBuffer或FileRegion，按发送顺序排列
+        List<ServerEvents.RequestEvent> events = null;
+        boolean keepAlive = false;
+        FileChannel file = null; // 已打开、还没有放进output的文件
+        try {
+            RequestProcessor processor = loop.getProcessor();
+            while (request != null) {
+                long start = System.nanoTime();
+                if (event == null && (event = ServerEvents.beginRequest()) != null) {
+                    parseStart = start; // 流水线上已经在缓冲区里的请求
+                }
+                requestCount++;
+                boolean lastRequest = requestCount >= HttpConstants.MAX_REQUESTS_PER_CONNECTION;
+                HttpResponse response = processor.process(request);
+                if (response.getBodyFile() != null) {
+                    // 先打开文件再生成头部：查询属性之后文件被删除或改名时还能改发404，
+                    // 而不是发出带Content-Length的头部后关闭连接
+                    try {
+                        file = FileChannel.open(response.getBodyFile(), StandardOpenOption.READ);
+                    } catch (IOException e) {
+                        Log.warn("打开文件失败: " + e);
+                        response = ResponseBuilder.buildErrorResponse(e instanceof NoSuchFileException
+                                ? HttpConstants.STATUS_NOT_FOUND : HttpConstants.STATUS_INTERNAL_ERROR);
+                    }
+                }
+                keepAlive = processor.finishResponse(request, response, lastRequest);
+                processor.complete(request, response, start); // 响应由事件循环异步发送，这里记录的是处理耗时
+                if (event != null) {
+                    ServerEvents.requestHandled(event, request, response, parseStart, start, System.nanoTime());
+                    if (events == null) {
+                        events = new ArrayList<>();
+                    }
+                    events.add(event);
+                    event = null;
+                }
+                if (response.getStreamingBody() != null) {
+                    handleStreaming(response, keepAlive, output, events);
+                    return;
+                }
+
+                CannedResponse canned = response.getCanned();
+                if (canned != null) {
+                    addCanned(output, canned, keepAlive);
+                    if (!keepAlive || output.size() >= MAX_BATCH) {
+                        break;
+                    }
+                    request = parser.next();
+                    continue;
+                }
+
+                writer.reset();
+                writer.writeHead(response);
+                byte[] body = response.getBody();
+                if (response.getBodyFile() != null) {
+                    // 大文件：头部先入队，文件内容由事件循环用transferTo发送
+                    output.add(ByteBuffer.wrap(writer.toByteArray()));
+                    output.add(new FileRegion(file, response.getBodyOffset(), response.getBodyLength()));
+                    file = null;
+                } else if (body.length > ResponseWriter.MAX_INLINE_BODY) {
+                    // 大响应体不复制，和头部一起由gathering write发送
+                    output.add(ByteBuffer.wrap(writer.toByteArray()));
+                    output.add(ByteBuffer.wrap(body));
+                } else {
+                    writer.write(body, 0, body.length);
+                    output.add(ByteBuffer.wrap(writer.toByteArray()));
+                }
+                if (!keepAlive || output.size() >= MAX_BATCH) {
+                    break;
+                }
+                // 处理期间事件循环不会读取，这里可以安全地继续使用解析器
+                request = parser.next();
+            }
+        } catch (BadRequestException e) {
+            // 流水线中后面的请求格式错误：前面的响应照常发送，最后追加400并关闭
+            addCanned(output, ResponseBuilder.cannedError(HttpConstants.STATUS_BAD_REQUEST), false);
+            keepAlive = false;
+        } catch (Exception e) {
+            // 当前请求的响应还没有放进output：补一个500再关闭，前面的响应照常发送
+            Log.error("处理请求时发生错误: " + e);
+            addCanned(output, ResponseBuilder.cannedError(HttpConstants.STATUS_INTERNAL_ERROR), false);
+            keepAlive = false;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException closeError) {
+                    // 忽略关闭错误
+                }
+            }
+        }
+
+        boolean keep = keepAlive;
+        List<ServerEvents.RequestEvent> handled = events;
+        loop.execute(() -> onResponse(output, keep, handled));
+    }
+
+    /**
+     * 预先序列化好的响应不经过writer，三段共享的字节直接由gathering write发送
+     */
+    private static void addCanned(List<Object> output, CannedResponse response, boolean keepAlive) {
+        output.add(ByteBuffer.wrap(response.getHead()));
+        output.add(ByteBuffer.wrap(DateHeader.get()));
+        output.add(ByteBuffer.wrap(response.getTail(keepAlive)));
+    }
+
+    /**
+     * 在工作线程上生成流式响应，数据边生成边交给事件循环发送
+     * before是同一批中排在前面、已经序列化好的响应
+     */
+    private void handleStreaming(HttpResponse response, boolean keepAlive, List<Object> before,
+                                 List<ServerEvents.RequestEvent> events) {
+        if (!before.isEmpty()) {
+            long bytes = 0;
+            for (Object item : before) {
+                if (item instanceof ByteBuffer) {
+                    bytes += ((ByteBuffer) item).remaining();
+                }
+            }
+            synchronized (streamLock) {
+                streamPending += bytes; // 和流式数据一起计入待发送字节数
+            }
+            loop.execute(() -> {
+                for (Object item : before) {
+                    enqueue(item);
+                }
+            });
+        }
+        try {
+            OutputStream out = new BufferedOutputStream(new StreamOutput(), HttpConstants.BUFFER_SIZE);
+            ResponseBuilder.build(response, out, null, writer, keepAlive);
+            out.flush();
+            loop.execute(() -> complete(keepAlive, events));
+        } catch (Exception e) {
+            // 响应已经发出一部分，只能关闭连接
+            Log.warn("流式响应发送失败: " + e.getMessage());
+            loop.execute(this::close);
+        }
+    }
+
+    /**
+     * 事件循环上：把流式响应的一段数据加入发送队列
+     */
+    private void enqueue(Object item) {
+        if (closed) {
+            if (item instanceof FileRegion) {
+                ((FileRegion) item).close();
+            }
+            return;
+        }
+        streaming = true;
+        pendingWrites.add(item);
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 事件循环上：流式响应已全部生成
+     */
+    private void complete(boolean keepAlive, List<ServerEvents.RequestEvent> events) {
+        if (closed) {
+            return;
+        }
+        addUnwritten(events);
+        streaming = false;
+        synchronized (streamLock) {
+            streamPending = 0;
+        }
+        closeAfterWrite = !keepAlive;
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void onResponse(List<Object> output, boolean keepAlive, List<ServerEvents.RequestEvent> events) {
+        if (closed) {
+            for (Object item : output) {
+                if (item instanceof FileRegion) {
+                    ((FileRegion) item).close();
+                }
+            }
+            return;
+        }
+        pendingWrites.addAll(output);
+        addUnwritten(events);
+        closeAfterWrite = !keepAlive;
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            Object head = pendingWrites.peek();
+            if (head instanceof FileRegion) {
+                FileRegion region = (FileRegion) head;
+                long before = region.remaining();
+                boolean done = region.transferTo(channel);
+                metrics().addBytesOut(before - region.remaining());
+                if (!done) {
+                    key.interestOps(SelectionKey.OP_WRITE); // 发送缓冲区已满，等待可写
+                    return;
+                }
+                pendingWrites.poll();
+                ((FileRegion) head).close();
+                continue;
+            }
+
+            // 队首连续的ByteBuffer用一次gathering write发送
+            int count = 0;
+            for (Object item : pendingWrites) {
+                if (!(item instanceof ByteBuffer) || count == gather.length) {
+                    break;
+                }
+                gather[count++] = (ByteBuffer) item;
+            }
+            long written = channel.write(gather, 0, count);
+            Arrays.fill(gather, 0, count, null);
+            metrics().addBytesOut(written);
+            if (streaming && written > 0) {
+                releaseStreamed(written);
+            }
+            while (pendingWrites.peek() instanceof ByteBuffer && !((ByteBuffer) pendingWrites.peek()).hasRemaining()) {
+                pendingWrites.poll();
+            }
+            if (pendingWrites.peek() instanceof ByteBuffer) {
+                key.interestOps(SelectionKey.OP_WRITE); // 发送缓冲区已满，等待可写
+                return;
+            }
+        }
+
+        if (streaming) {
+            key.interestOps(0); // 等待工作线程生成更多数据
+            return;
+        }
+        processing = false;
+        commitWritten();
+        if (closeAfterWrite) {
+            close();
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        tryDispatch(); // 缓冲区里可能已经有下一个请求
+    }
+
+    private void addUnwritten(List<ServerEvents.RequestEvent> events) {
+        if (events != null) {
+            if (unwritten == null) {
+                unwritten = events;
+            } else {
+                unwritten.addAll(events);
+            }
+        }
+    }
+
+    /**
+     * 这一批响应已经全部写入socket（或者连接已关闭），提交其中请求的JFR事件
+     */
+    private void commitWritten() {
+        if (unwritten != null) {
+            for (ServerEvents.RequestEvent event : unwritten) {
+                ServerEvents.requestWritten(event);
+            }
+            unwritten = null;
+        }
+    }
+
+    private void releaseStreamed(long written) {
+        synchronized (streamLock) {
+            streamPending -= written;
+            if (streamPending < HttpConstants.STREAM_WRITE_BUFFER) {
+                streamLock.notifyAll();
+            }
+        }
+    }
+
+    private Metrics metrics() {
+        return loop.getProcessor().getMetrics();
+    }
+
+    /**
+     * 事件循环上：空闲或读取过慢超时
+     */
+    private void onTimeout() {
+        if (!closed && !processing && timeout.isPastDeadline()) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        timeout.cancel();
+        synchronized (streamLock) {
+            streamLock.notifyAll(); // 唤醒等待发送的工作线程
+        }
+        loop.remove(this);
+        loop.getAdmission().release(remoteAddress);
+        metrics().recordConnection(requestCount);
+        commitWritten();
+        ServerEvents.connectionClosed(connectionEvent, remoteAddress, requestCount);
+        if (key != null) {
+            key.cancel();
+        }
+        for (Object pending : pendingWrites) {
+            if (pending instanceof FileRegion) {
+                ((FileRegion) pending).close();
+            }
+        }
+        pendingWrites.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("关闭连接时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 工作线程上使用的输出流：每次写入复制成一个ByteBuffer交给事件循环，
+     * 待发送数据超过STREAM_WRITE_BUFFER时阻塞，避免慢客户端让数据在内存中堆积
+     */
+    private class StreamOutput extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len));
+            synchronized (streamLock) {
+                try {
+                    while (streamPending >= HttpConstants.STREAM_WRITE_BUFFER && !closed) {
+                        streamLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while streaming response");
+                }
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                streamPending += len;
+            }
+            loop.execute(() -> enqueue(chunk));
+        }
+    }
+}
+
+/**
+ * 待发送的文件区间，用transferTo非阻塞地分多次发送
+ */
+class FileRegion {
+    private FileChannel file;
+    private long position;
+    private long end;
+
+    FileRegion(FileChannel file, long offset, long length) {
+        this.file = file;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    long remaining() {
+        return end - position;
+    }
+
+    /**
+     * 尽可能多地发送，全部发送完毕时返回true
+     */
+    boolean transferTo(SocketChannel channel) throws IOException {
+        while (position < end) {
+            long n = file.transferTo(position, end - position, channel);
+            if (n <= 0) {
+                if (position >= file.size()) {
+                    throw new IOException("File truncated while sending");
+                }
+                return false; // socket发送缓冲区已满
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+}
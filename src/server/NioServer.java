@@ -0,0 +1,208 @@
+package server;
+
+import shared.HttpConstants;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * NIO模式服务器
+ * 一个接收线程负责accept，若干事件循环线程用Selector复用所有连接，
+ * 只有读取完整的请求才会交给工作线程池处理，空闲的长连接不再占用线程
+ */
+public class NioServer {
+    private int port;
+    private RequestProcessor processor;
+    private ExecutorService workers;
+    private AdmissionControl admission;
+    private ConnectionTimer timer;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] loops;
+    private volatile boolean isRunning;
+
+    public NioServer(int port, RequestProcessor processor, ExecutorService workers, AdmissionControl admission,
+                     ConnectionTimer timer) {
+        this.port = port;
+        this.processor = processor;
+        this.workers = workers;
+        this.admission = admission;
+        this.timer = timer;
+    }
+
+    /**
+     * 启动事件循环并在当前线程上接收连接（阻塞直到stop）
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+
+        loops = new NioEventLoop[HttpConstants.NIO_EVENT_LOOPS];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(processor, workers, admission, timer);
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        isRunning = true;
+
+        int next = 0;
+        while (isRunning) {
+            SocketChannel channel = serverChannel.accept();
+            InetAddress address = channel.socket().getInetAddress();
+            CannedResponse rejection = admission.admit(address);
+            ServerEvents.accepted(address, rejection == null ? 0 : rejection.getStatusCode());
+            if (rejection != null) {
+                AdmissionControl.reject(channel, rejection);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // 轮询分配到各个事件循环
+            loops[next].register(channel, address);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    public void stop() {
+        isRunning = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+        }
+    }
+}
+
+/**
+ * 单个事件循环：一个Selector加一个任务队列
+ * 所有连接状态只在本线程上修改，工作线程通过execute()把结果交回来
+ */
+class NioEventLoop implements Runnable {
+    private Selector selector;
+    private RequestProcessor processor;
+    private ExecutorService workers;
+    private AdmissionControl admission;
+    private ConnectionTimer timer;
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private Set<NioConnection> connections = new HashSet<>();
+    private volatile boolean running = true;
+
+    NioEventLoop(RequestProcessor processor, ExecutorService workers, AdmissionControl admission,
+                 ConnectionTimer timer) throws IOException {
+        this.selector = Selector.open();
+        this.processor = processor;
+        this.workers = workers;
+        this.admission = admission;
+        this.timer = timer;
+    }
+
+    RequestProcessor getProcessor() { return processor; }
+    ExecutorService getWorkers() { return workers; }
+    AdmissionControl getAdmission() { return admission; }
+    ConnectionTimer getTimer() { return timer; }
+
+    void register(SocketChannel channel, InetAddress address) {
+        execute(() -> {
+            try {
+                NioConnection connection = new NioConnection(channel, address, this);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                connections.add(connection);
+            } catch (IOException e) {
+                Log.warn("注册连接失败: " + e.getMessage());
+                admission.release(address);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * 提交任务到事件循环线程执行
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void remove(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(1000);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("事件循环错误: " + e.getMessage());
+        } finally {
+            for (NioConnection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("关闭Selector时出错: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 紧凑的用户表，用于千万级用户
+ * 按哈希高位分成SEGMENTS个段，每段一把写锁（分段写）和一个开放寻址（线性探测）的long索引数组；
+ * 记录 [u16 用户名长度][u16 凭据长度][用户名UTF-8][压缩后的凭据] 追加写在段自己的堆外内存块里。
+ * 索引槽 = 哈希标签(23位) | 记录地址+1(40位)，0表示空，TOMBSTONE表示已删除。
+ *
+ * 读操作不加锁：记录写完后才用volatile写发布索引槽，扩容时在新数组里重建好再整体替换，
+ * 读线程看到的要么是旧数组要么是新数组，都是一致的。每个用户约占 8/负载因子 字节索引 + 4 + 用户名 + 约53字节凭据，
+ * 而且不产生需要GC跟踪的对象。堆外内存受 -XX:MaxDirectMemorySize 限制。
+ */
+public class OffHeapUserTable implements UserTable {
+    private static final int SEGMENTS = 64;                 // 必须是2的幂
+    private static final int SEGMENT_SHIFT = 64 - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_CAPACITY = 1024;       // 每段初始槽数
+    private static final double MAX_LOAD = 0.7;
+
+    private static final long ADDRESS_MASK = (1L << 40) - 1;
+    private static final long TAG_MASK = (1L << 23) - 1;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int OFFSET_BITS = 24;              // 块内偏移，单个块最大16MB
+    private static final int MAX_CHUNK = 1 << OFFSET_BITS;
+    private static final int FIRST_CHUNK = 64 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;      // 块从64KB倍增到1MB，之后固定，每段最多浪费一个块的尾部
+    private static final int MAX_FIELD = 0xFFFF;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public OffHeapUserTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public String get(String username) {
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    @Override
+    public String putIfAbsent(String username, String credential) {
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, PasswordHasher.pack(credential), true);
+    }
+
+    @Override
+    public void put(String username, String credential) {
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        segmentFor(hash).put(key, hash, PasswordHasher.pack(credential), false);
+    }
+
+    @Override
+    public boolean remove(String username, String credential) {
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash, credential);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        for (Segment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    /**
+     * 堆外记录占用的字节数（已分配的块）
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.allocatedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * 索引数组占用的字节数
+     */
+    public long getIndexBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.slots.length() * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> SEGMENT_SHIFT)];
+    }
+
+    /**
+     * FNV-1a 64位 + murmur3的fmix64，让高位（选段）、低位（槽位）和标签位都分布均匀
+     */
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long tag(long hash) {
+        return (hash >>> 35) & TAG_MASK;
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile AtomicLongArray slots = new AtomicLongArray(INITIAL_CAPACITY);
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        private volatile int count;        // 有效记录数
+        private int used;                  // 有效记录 + 墓碑，决定何时扩容
+        private int chunkPosition;         // 当前块的写入位置
+        private long allocatedBytes;
+
+        String get(byte[] key, long hash) {
+            AtomicLongArray table = slots;
+            int mask = table.length() - 1;
+            long tag = tag(hash);
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = table.get(i);
+                if (slot == 0) {
+                    return null;
+                }
+                if (slot != TOMBSTONE && (slot >>> 40) == tag && keyEquals(slot, key)) {
+                    return readValue(slot);
+                }
+            }
+        }
+
+        String put(byte[] key, long hash, byte[] value, boolean onlyIfAbsent) {
+            if (key.length > MAX_FIELD || value.length > MAX_FIELD) {
+                throw new IllegalArgumentException("User record too large");
+            }
+            lock.lock();
+            try {
+                AtomicLongArray table = slots;
+                int mask = table.length() - 1;
+                long tag = tag(hash);
+                int free = -1;
+                int i = (int) hash & mask;
+                for (; ; i = (i + 1) & mask) {
+                    long slot = table.get(i);
+                    if (slot == 0) {
+                        break;
+                    }
+                    if (slot == TOMBSTONE) {
+                        if (free < 0) {
+                            free = i;
+                        }
+                    } else if ((slot >>> 40) == tag && keyEquals(slot, key)) {
+                        if (onlyIfAbsent) {
+                            return readValue(slot);
+                        }
+                        free = i; // 覆盖：旧记录的空间不回收（只在恢复时发生）
+                        count--;
+                        used--;
+                        break;
+                    }
+                }
+                long entry = (tag << 40) | (append(key, value) + 1);
+                if (free >= 0) {
+                    if (table.get(free) != TOMBSTONE) {
+                        used++;
+                    }
+                    table.set(free, entry); // volatile写，发布记录
+                } else {
+                    table.set(i, entry);
+                    used++;
+                }
+                count++;
+                if (used > table.length() * MAX_LOAD) {
+                    rehash(table);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(byte[] key, long hash, String value) {
+            lock.lock();
+            try {
+                AtomicLongArray table = slots;
+                int mask = table.length() - 1;
+                long tag = tag(hash);
+                for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                    long slot = table.get(i);
+                    if (slot == 0) {
+                        return false;
+                    }
+                    if (slot != TOMBSTONE && (slot >>> 40) == tag && keyEquals(slot, key)) {
+                        if (!readValue(slot).equals(value)) {
+                            return false;
+                        }
+                        table.set(i, TOMBSTONE); // 记录空间不回收，删除很少发生
+                        count--;
+                        return true;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void forEach(BiConsumer<String, String> action) {
+            AtomicLongArray table = slots;
+            for (int i = 0; i < table.length(); i++) {
+                long slot = table.get(i);
+                if (slot != 0 && slot != TOMBSTONE) {
+                    ByteBuffer chunk = chunkOf(slot);
+                    int offset = offsetOf(slot);
+                    byte[] key = new byte[chunk.getShort(offset) & 0xFFFF];
+                    chunk.get(offset + 4, key);
+                    action.accept(new String(key, StandardCharsets.UTF_8), readValue(slot));
+                }
+            }
+        }
+
+        /**
+         * 在新数组里重新插入所有有效记录（墓碑被丢弃），完成后整体替换；持有锁时调用
+         */
+        private void rehash(AtomicLongArray old) {
+            int capacity = old.length();
+            if (count > capacity * MAX_LOAD / 2) {
+                capacity *= 2; // 墓碑很多时只是原大小重建
+            }
+            AtomicLongArray table = new AtomicLongArray(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < old.length(); j++) {
+                long slot = old.get(j);
+                if (slot == 0 || slot == TOMBSTONE) {
+                    continue;
+                }
+                ByteBuffer chunk = chunkOf(slot);
+                int offset = offsetOf(slot);
+                byte[] key = new byte[chunk.getShort(offset) & 0xFFFF];
+                chunk.get(offset + 4, key);
+                int i = (int) hash(key) & mask;
+                while (table.get(i) != 0) {
+                    i = (i + 1) & mask;
+                }
+                table.set(i, slot);
+            }
+            used = count;
+            slots = table;
+        }
+
+        /**
+         * 把记录追加到当前块，返回地址（块序号 << 24 | 块内偏移）；持有锁时调用
+         */
+        private long append(byte[] key, byte[] value) {
+            int length = 4 + key.length + value.length;
+            ByteBuffer[] current = chunks;
+            ByteBuffer chunk = current.length == 0 ? null : current[current.length - 1];
+            if (chunk == null || chunkPosition + length > chunk.capacity()) {
+                int size = current.length == 0 ? FIRST_CHUNK
+                        : Math.min(CHUNK_SIZE, current[current.length - 1].capacity() * 2);
+                chunk = ByteBuffer.allocateDirect(Math.max(size, length));
+                ByteBuffer[] grown = new ByteBuffer[current.length + 1];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                grown[current.length] = chunk;
+                chunks = grown;
+                chunkPosition = 0;
+                allocatedBytes += chunk.capacity();
+                current = grown;
+            }
+            int offset = chunkPosition;
+            chunk.putShort(offset, (short) key.length);
+            chunk.putShort(offset + 2, (short) value.length);
+            chunk.put(offset + 4, key);
+            chunk.put(offset + 4 + key.length, value);
+            chunkPosition += length;
+            return ((long) (current.length - 1) << OFFSET_BITS) | offset;
+        }
+
+        private boolean keyEquals(long slot, byte[] key) {
+            ByteBuffer chunk = chunkOf(slot);
+            int offset = offsetOf(slot);
+            if ((chunk.getShort(offset) & 0xFFFF) != key.length) {
+                return false;
+            }
+            int base = offset + 4;
+            for (int i = 0; i < key.length; i++) {
+                if (chunk.get(base + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String readValue(long slot) {
+            ByteBuffer chunk = chunkOf(slot);
+            int offset = offsetOf(slot);
+            int keyLength = chunk.getShort(offset) & 0xFFFF;
+            byte[] value = new byte[chunk.getShort(offset + 2) & 0xFFFF];
+            chunk.get(offset + 4 + keyLength, value);
+            return PasswordHasher.unpack(value, 0, value.length);
+        }
+
+        private ByteBuffer chunkOf(long slot) {
+            long address = (slot & ADDRESS_MASK) - 1;
+            return chunks[(int) (address >>> OFFSET_BITS)];
+        }
+
+        private static int offsetOf(long slot) {
+            long address = (slot & ADDRESS_MASK) - 1;
+            return (int) (address & (MAX_CHUNK - 1));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * 加盐的PBKDF2密码哈希
+ * 凭据格式: pbkdf2-sha256$迭代次数$盐(Base64)$哈希(Base64)
+ * 迭代次数记录在凭据里，调整默认值后旧凭据仍然可以校验。线程安全。
+ */
+public class PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String SCHEME = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * 生成新的随机盐并计算凭据
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return format(iterations, salt, pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * 校验密码，哈希值用常量时间比较；格式不对的凭据视为不匹配
+     */
+    public boolean verify(String password, String credential) {
+        String[] parts = credential.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(SCHEME)) {
+            return false;
+        }
+        try {
+            int rounds = Integer.parseInt(parts[1]);
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] salt = decoder.decode(parts[2]);
+            byte[] expected = decoder.decode(parts[3]);
+            return rounds > 0 && MessageDigest.isEqual(expected, pbkdf2(password, salt, rounds));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * 把凭据压缩成二进制（紧凑存储用）: [1][int 迭代次数][byte 盐长度][盐][哈希]；
+     * 不是标准格式、解码后不能原样还原的凭据按UTF-8保存: [0][字节]
+     */
+    static byte[] pack(String credential) {
+        String[] parts = credential.split("\\$");
+        if (parts.length == 4 && parts[0].equals(SCHEME)) {
+            try {
+                int rounds = Integer.parseInt(parts[1]);
+                byte[] salt = Base64.getDecoder().decode(parts[2]);
+                byte[] hash = Base64.getDecoder().decode(parts[3]);
+                if (salt.length < 256 && format(rounds, salt, hash).equals(credential)) {
+                    return ByteBuffer.allocate(6 + salt.length + hash.length)
+                            .put((byte) 1).putInt(rounds).put((byte) salt.length).put(salt).put(hash).array();
+                }
+            } catch (IllegalArgumentException e) {
+                // 按原样保存
+            }
+        }
+        byte[] raw = credential.getBytes(StandardCharsets.UTF_8);
+        byte[] packed = new byte[raw.length + 1];
+        System.arraycopy(raw, 0, packed, 1, raw.length);
+        return packed;
+    }
+
+    static String unpack(byte[] packed, int offset, int length) {
+        if (packed[offset] == 0) {
+            return new String(packed, offset + 1, length - 1, StandardCharsets.UTF_8);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(packed, offset + 1, length - 1);
+        int rounds = buffer.getInt();
+        byte[] salt = new byte[buffer.get() & 0xFF];
+        buffer.get(salt);
+        byte[] hash = new byte[buffer.remaining()];
+        buffer.get(hash);
+        return format(rounds, salt, hash);
+    }
+
+    private static String format(int rounds, byte[] salt, byte[] hash) {
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return SCHEME + "$" + rounds + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int rounds) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
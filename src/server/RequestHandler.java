@@ -1,218 +1,195 @@
 package server;
 
 import shared.HttpConstants;
-import shared.HttpUtils;
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.util.Map;
 
 public class RequestHandler implements Runnable {
     private Socket clientSocket;
-    private UserManager userManager;
-    private BufferedReader in;
+    private RequestProcessor processor;
+    private Metrics metrics;
+    private AdmissionControl admission;
+    private InetAddress remoteAddress;
+    private ConnectionTimer timer;
+    private ConnectionTimer.Timeout timeout;
+    private RequestParser parser = new RequestParser();
+    private ResponseWriter writer = new ResponseWriter();
+    private InputStream in;
     private OutputStream out;
     private int requestCount = 0; // 跟踪当前连接处理的请求数量
-    private final int MAX_REQUESTS_PER_CONNECTION = 100; // 每个连接最多处理100个请求
+    private ServerEvents.ConnectionEvent connectionEvent;
+    private ServerEvents.RequestEvent requestEvent; // 没有在录制时为null
+    private long parseStart;                         // 当前请求第一批数据到达的时间，只在录制时记录
 
-    public RequestHandler(Socket clientSocket, UserManager userManager) {
+    public RequestHandler(Socket clientSocket, RequestProcessor processor, AdmissionControl admission,
+                          ConnectionTimer timer) {
         this.clientSocket = clientSocket;
-        this.userManager = userManager;
+        this.processor = processor;
+        this.metrics = processor.getMetrics();
+        this.admission = admission;
+        this.remoteAddress = clientSocket.getInetAddress();
+        parser.setRemoteAddress(remoteAddress);
+        this.timer = timer;
+        this.connectionEvent = ServerEvents.beginConnection();
+    }
+
+    /**
+     * 没能交给线程池时调用，释放连接占用的计数（socket由调用方关闭）
+     */
+    void abandon() {
+        admission.release(remoteAddress);
     }
 
     @Override
     public void run() {
-        String clientAddress = clientSocket.getInetAddress().getHostAddress();
-        System.out.println("开始处理新连接，客户端: " + clientAddress);
+        // 拿到工作线程后才开始计时：在队列里等待的连接可能已经发来了请求，不能当作空闲连接关闭
+        timeout = timer.register(this::expire);
+        debug("开始处理新连接");
 
         try {
-            clientSocket.setSoTimeout(HttpConstants.KEEP_ALIVE_TIMEOUT);
+            // 输出已经由缓冲区合并，不需要Nagle算法再延迟小包
+            clientSocket.setTcpNoDelay(true);
 
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = clientSocket.getOutputStream();
+            in = clientSocket.getInputStream();
+            // 流水线上连续的响应先攒在缓冲区里，没有待处理的请求时再一次写出
+            out = new BufferedOutputStream(new CountingOutputStream(clientSocket.getOutputStream(), metrics),
+                    HttpConstants.RESPONSE_BUFFER_SIZE);
             
             // 处理多个请求（长连接）
-            while (!clientSocket.isClosed() && requestCount < MAX_REQUESTS_PER_CONNECTION) {
-                System.out.println("等待下一个请求... 当前请求数: " + requestCount + "，客户端: " + clientAddress);
+            while (!clientSocket.isClosed() && requestCount < HttpConstants.MAX_REQUESTS_PER_CONNECTION) {
+                if (Log.isDebugEnabled()) {
+                    debug("等待下一个请求... 当前请求数: " + requestCount);
+                }
 
                 try {
-                    HttpRequest request = RequestParser.parse(in);
+                    // 缓冲区里已有完整请求（客户端流水线发送）时直接处理，不先发送之前的响应
+                    HttpRequest request = parser.next();
+                    if (request == null) {
+                        out.flush();
+                        request = readRequest();
+                    }
 
                     if (request == null) {
-                        System.out.println("请求解析为null，结束处理循环。客户端: " + clientAddress);
-                        break; // 解析失败，可能是格式错误
+                        debug("客户端关闭连接，结束处理循环");
+                        break;
                     }
 
+                    timeout.busy();
+                    long start = System.nanoTime();
+                    if (requestEvent == null && (requestEvent = ServerEvents.beginRequest()) != null) {
+                        parseStart = start; // 流水线上已经在缓冲区里的请求，没有解析等待
+                    }
                     requestCount++;
-                    System.out.println("处理第 " + requestCount + " 个请求，方法: " + request.getMethod() +
-                            "，路径: " + request.getPath() + "，客户端: " + clientAddress);
+                    if (Log.isDebugEnabled()) {
+                        debug("处理第 " + requestCount + " 个请求，方法: " + request.getMethod() +
+                                "，路径: " + request.getPath());
+                    }
 
-                    HttpResponse response = processRequest(request);
-                    boolean keepAlive = shouldKeepAlive(request);
+                    HttpResponse response = processor.process(request);
+                    boolean lastRequest = requestCount >= HttpConstants.MAX_REQUESTS_PER_CONNECTION;
+                    boolean keepAlive = processor.finishResponse(request, response, lastRequest);
 
-                    if (keepAlive) {
-                        response.setHeader("Connection", "keep-alive");
-                        response.setHeader("Keep-Alive", "timeout=" + (HttpConstants.KEEP_ALIVE_TIMEOUT/1000));
-                    } else {
-                        response.setHeader("Connection", "close");
+                    long handled = requestEvent != null ? System.nanoTime() : 0;
+                    ResponseBuilder.build(response, out, clientSocket.getChannel(), writer, keepAlive);
+                    if (response.getBodyFile() != null) {
+                        metrics.addBytesOut(response.getBodyLength()); // transferTo绕过了out
+                    }
+                    processor.complete(request, response, start);
+                    if (requestEvent != null) {
+                        if (!parser.hasBufferedData()) {
+                            out.flush(); // 反正要在读下一个请求前发送，提前到这里才能算进发送耗时
+                        }
+                        ServerEvents.requestHandled(requestEvent, request, response, parseStart, start, handled);
+                        ServerEvents.requestWritten(requestEvent);
+                        requestEvent = null;
                     }
-
-                    ResponseBuilder.build(response, out);
 
                     // 如果不保持连接，则退出循环
                     if (!keepAlive) {
-                        System.out.println("不再保持连接，准备关闭。客户端: " + clientAddress);
+                        out.flush();
+                        debug("不再保持连接，准备关闭");
                         break;
                     }
 
-                } catch (SocketTimeoutException e) {
-                    System.out.println("读取请求超时，关闭空闲连接。客户端: " + clientAddress);
+                } catch (BadRequestException e) {
+                    debug("请求格式错误: " + e.getMessage());
+                    ResponseBuilder.cannedError(HttpConstants.STATUS_BAD_REQUEST).writeTo(out, false);
+                    out.flush();
                     break;
                 } catch (IOException e) {
+                    if (timeout.isExpired()) {
+                        debug("读取请求超时，关闭空闲连接");
+                        break;
+                    }
                     if (e.getMessage() != null && e.getMessage().contains("Connection reset")) {
-                        System.out.println("连接被重置，客户端可能异常关闭。客户端: " + clientAddress);
+                        debug("连接被重置，客户端可能异常关闭");
                         break;
                     }
-                    System.err.println("处理请求时发生I/O错误: " + e.getMessage() + "，客户端: " + clientAddress);
-                    e.printStackTrace();
+                    Log.warn("处理请求时发生I/O错误: " + e + "，客户端: " + remoteAddress.getHostAddress());
                     break;
                 }
             }
 
-            System.out.println("连接处理完成，共处理 " + requestCount + " 个请求，客户端: " + clientAddress);
+            if (Log.isDebugEnabled()) {
+                debug("连接处理完成，共处理 " + requestCount + " 个请求");
+            }
         } catch (IOException e) {
-            System.err.println("Error handling request: " + e.getMessage());
+            Log.warn("Error handling request: " + e.getMessage());
         } finally {
             closeConnection();
         }
     }
     
-    private HttpResponse processRequest(HttpRequest request) {
-        String method = request.getMethod();
-        String path = request.getPath();
-        
-        // 检查支持的HTTP方法
-        if (!"GET".equals(method) && !"POST".equals(method)) {
-            HttpResponse errorResponse = ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_METHOD_NOT_ALLOWED);
-            errorResponse.setHeader("Connection", "close"); // 不支持的方法，关闭连接
-            return errorResponse;
-        }
-        
-        // 处理API请求
-        if ("/api/register".equals(path) && "POST".equals(method)) {
-            return handleRegister(request);
-        } else if ("/api/login".equals(path) && "POST".equals(method)) {
-            return handleLogin(request);
+    /**
+     * 每个请求的处理细节，默认不记录；拼接开销大的调用方先判断Log.isDebugEnabled()
+     */
+    private void debug(String message) {
+        if (Log.isDebugEnabled()) {
+            Log.debug(message + "，客户端: " + remoteAddress.getHostAddress());
         }
-        
-        // 处理静态文件请求
-        return handleStaticFile(request);
     }
-    
-    private HttpResponse handleRegister(HttpRequest request) {
-        try {
-            Map<String, String> params = request.getBodyParams();
-            String username = params.get("username");
-            String password = params.get("password");
-            
-            if (username == null || username.trim().isEmpty() || 
-                password == null || password.trim().isEmpty()) {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_BAD_REQUEST, 
-                    "{\"error\": \"Username and password are required\"}"
-                );
+
+    /**
+     * 阻塞读取下一个请求，每次读取前按解析器状态更新截止时间；客户端关闭连接时返回null
+     */
+    private HttpRequest readRequest() throws IOException {
+        while (true) {
+            timeout.awaitRequest(parser);
+            int n = parser.fill(in);
+            if (n < 0) {
+                return null;
             }
-            
-            boolean success = userManager.registerUser(username.trim(), password.trim());
-            if (success) {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_OK,
-                    "{\"message\": \"User registered successfully\"}"
-                );
-            } else {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_BAD_REQUEST,
-                    "{\"error\": \"Username already exists\"}"
-                );
+            metrics.addBytesIn(n);
+            if (requestEvent == null && (requestEvent = ServerEvents.beginRequest()) != null) {
+                parseStart = System.nanoTime(); // 从第一批数据到达算起，不包括keep-alive空闲等待
+            }
+            HttpRequest request = parser.next();
+            if (request != null) {
+                return request;
             }
-        } catch (Exception e) {
-            return ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
         }
     }
-    
-    private HttpResponse handleLogin(HttpRequest request) {
+
+    /**
+     * 在计时线程上调用：关闭socket，阻塞在读取上的工作线程随即收到异常
+     */
+    private void expire() {
         try {
-            Map<String, String> params = request.getBodyParams();
-            String username = params.get("username");
-            String password = params.get("password");
-            
-            if (username == null || password == null) {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_BAD_REQUEST,
-                    "{\"error\": \"Username and password are required\"}"
-                );
-            }
-            
-            boolean success = userManager.loginUser(username, password);
-            if (success) {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_OK,
-                    "{\"message\": \"Login successful\"}"
-                );
-            } else {
-                return ResponseBuilder.buildJsonResponse(
-                    HttpConstants.STATUS_UNAUTHORIZED,
-                    "{\"error\": \"Invalid username or password\"}"
-                );
-            }
-        } catch (Exception e) {
-            return ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
+            clientSocket.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
         }
     }
-    
-   private HttpResponse handleStaticFile(HttpRequest request) {
-    String path = request.getPath();
-    
-    // 重定向根路径到index.html - 302临时重定向
-    if ("/".equals(path)) {
-        System.out.println("Redirecting / to /index.html (302)");
-        return ResponseBuilder.buildRedirectResponse("/index.html");
-    }
-    
-    // 添加301永久重定向测试端点
-    if ("/old-page".equals(path)) {
-        System.out.println("Redirecting /old-page to /index.html (301)");
-        return ResponseBuilder.buildPermanentRedirectResponse("/index.html");
-    }
-    
-    // 添加302临时重定向测试端点
-    if ("/temp".equals(path)) {
-        System.out.println("Redirecting /temp to /index.html (302)");
-        return ResponseBuilder.buildRedirectResponse("/index.html");
-    }
-    
-    // 添加POST重定向测试端点
-    if ("/old-form".equals(path) && "POST".equals(request.getMethod())) {
-        System.out.println("Redirecting POST /old-form to /index.html (301)");
-        return ResponseBuilder.buildPermanentRedirectResponse("/index.html");
-    }
-    
-    if ("/temp-post".equals(path) && "POST".equals(request.getMethod())) {
-        System.out.println("Redirecting POST /temp-post to /index.html (302)");
-        return ResponseBuilder.buildRedirectResponse("/index.html");
-    }
-    
-    // 处理静态文件（添加Last-Modified头支持304）
-    return ResponseBuilder.buildFileResponse(path);
-}
-    
+
     private void closeConnection() {
+        timeout.cancel();
         try {
             if (in != null) {
                 in.close();
             }
         } catch (IOException e) {
-            System.err.println("关闭输入流时出错: " + e.getMessage());
+            Log.warn("关闭输入流时出错: " + e.getMessage());
         }
 
         try {
@@ -220,43 +197,43 @@ public class RequestHandler implements Runnable {
                 out.close();
             }
         } catch (IOException e) {
-            System.err.println("关闭输出流时出错: " + e.getMessage());
+            Log.warn("关闭输出流时出错: " + e.getMessage());
         }
 
         try {
             if (clientSocket != null && !clientSocket.isClosed()) {
                 clientSocket.close();
-                System.out.println("Socket已关闭");
+                debug("Socket已关闭");
             }
         } catch (IOException e) {
-            System.err.println("关闭Socket时出错: " + e.getMessage());
+            Log.warn("关闭Socket时出错: " + e.getMessage());
         }
+        admission.release(remoteAddress);
+        metrics.recordConnection(requestCount);
+        ServerEvents.connectionClosed(connectionEvent, remoteAddress, requestCount);
     }
 
-    private boolean shouldKeepAlive(HttpRequest request) {
-        // 1. 检查请求的连接头部
-        String requestConnection = request.getHeader("Connection");
+    /**
+     * 统计实际写到socket的字节数（位于BufferedOutputStream之下，每次flush计一次）
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final Metrics metrics;
 
-        // 2. 根据HTTP版本决定
-        String httpVersion = request.getVersion();
-        boolean isHttp11 = "HTTP/1.1".equals(httpVersion);
+        CountingOutputStream(OutputStream out, Metrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
 
-        if (isHttp11) {
-            // HTTP/1.1默认保持连接，除非明确指定Connection: close
-            if (requestConnection != null && "close".equalsIgnoreCase(requestConnection.trim())) {
-                System.out.println("HTTP/1.1请求明确要求关闭连接");
-                return false;
-            }
-            System.out.println("HTTP/1.1请求，保持连接");
-            return true;
-        } else {
-            // HTTP/1.0默认关闭连接，除非明确指定Connection: keep-alive
-            if (requestConnection != null && "keep-alive".equalsIgnoreCase(requestConnection.trim())) {
-                System.out.println("HTTP/1.0请求明确要求保持连接");
-                return true;
-            }
-            System.out.println("HTTP/1.0请求，关闭连接");
-            return false;
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.addBytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.addBytesOut(len);
         }
     }
 }
\ No newline at end of file
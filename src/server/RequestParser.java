@@ -2,120 +2,337 @@ package server;
 
 import shared.HttpConstants;
 import shared.HttpUtils;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * 字节级的HTTP请求解析器
+ * 每个连接持有一个实例，直接在可复用的byte[]缓冲区上解析；
+ * 数据不完整时返回null，补充数据后可以从上次的位置继续，阻塞和NIO模式通用。
+ *
+ * 返回的HttpRequest是解析器内部复用的对象，头部只记录偏移量，
+ * 只有处理器真正读取的头部才会创建String。它在下一次调用next()/fill()之前有效。
+ */
 public class RequestParser {
-    
-    public static HttpRequest parse(BufferedReader in) throws IOException {
-        String requestLine = in.readLine();
-        if (requestLine == null) {
-            return null; // 客户端关闭连接
-        }
-        
-        // 解析请求行
-        String[] requestParts = requestLine.split(" ");
-        if (requestParts.length < 3) {
-            return null; // 无效的请求
-        }
-        
-        String method = requestParts[0];
-        String path = HttpUtils.normalizePath(requestParts[1]);
-        String version = requestParts[2];
-        
-        HttpRequest request = new HttpRequest(method, path, version);
-        
-        // 解析请求头
-        String headerLine;
-        while (!(headerLine = in.readLine()).isEmpty()) {
-            int colonIndex = headerLine.indexOf(':');
-            if (colonIndex > 0) {
-                String headerName = headerLine.substring(0, colonIndex).trim();
-                String headerValue = headerLine.substring(colonIndex + 1).trim();
-                request.setHeader(headerName, headerValue);
+    private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POST = "POST".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEAD = "HEAD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer = new byte[HttpConstants.BUFFER_SIZE];
+    private ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    private int start = 0;      // 当前请求在缓冲区中的起始位置
+    private int limit = 0;      // 已读入数据的末尾
+    private int consumed = 0;   // 上一个请求结束的位置，下次解析前丢弃
+
+    // 可恢复的解析状态（相对于start的偏移）
+    private int scanned = 0;        // 已经查找过请求头结束标记的字节数
+    private int headerLength = -1;  // 请求头长度，-1表示请求头还不完整
+    private int contentLength = 0;
+
+    private HttpRequest request = new HttpRequest();
+
+    /**
+     * 记录客户端地址，之后解析出的请求都带上它（用于按IP限流）
+     */
+    public void setRemoteAddress(InetAddress address) {
+        request.setRemoteAddress(address);
+    }
+
+    /**
+     * 阻塞读取下一个完整的请求，客户端关闭连接时返回null
+     */
+    public HttpRequest parse(InputStream in) throws IOException {
+        while (true) {
+            HttpRequest next = next();
+            if (next != null) {
+                return next;
+            }
+            if (fill(in) < 0) {
+                return null; // 客户端关闭连接
             }
         }
-        
-        // 解析请求体（如果是POST请求）
-        if ("POST".equalsIgnoreCase(method)) {
-            parseRequestBody(in, request);
-        }
-        
-        // 解析查询参数（GET请求）
-        if ("GET".equalsIgnoreCase(method)) {
-            int queryIndex = requestParts[1].indexOf('?');
-            if (queryIndex != -1) {
-                String queryString = requestParts[1].substring(queryIndex + 1);
-                request.setQueryParams(HttpUtils.parseQueryString(queryString));
+    }
+
+    /**
+     * 追加一段数据后尝试解析，数据不完整时返回null
+     */
+    public HttpRequest parse(ByteBuffer input) throws IOException {
+        discardConsumed();
+        while (input.hasRemaining()) {
+            makeRoom();
+            int n = Math.min(input.remaining(), buffer.length - limit);
+            input.get(buffer, limit, n);
+            limit += n;
+        }
+        return next();
+    }
+
+    /**
+     * 从输入流读取一次数据到缓冲区，返回读取的字节数或-1
+     */
+    public int fill(InputStream in) throws IOException {
+        discardConsumed();
+        makeRoom();
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * 从通道读取一次数据到缓冲区（非阻塞通道可能返回0）
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        discardConsumed();
+        makeRoom();
+        wrapped.limit(buffer.length).position(limit);
+        int n = channel.read(wrapped);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * 缓冲区中是否还有未处理的数据（例如流水线发送的下一个请求）
+     */
+    public boolean hasBufferedData() {
+        return limit > Math.max(start, consumed);
+    }
+
+    /**
+     * 请求头已经完整、正在等待请求体
+     */
+    public boolean isReadingBody() {
+        return headerLength >= 0;
+    }
+
+    /**
+     * 尝试从已缓冲的数据中解析出一个完整的请求
+     * 数据不完整时返回null，请求格式错误时抛出BadRequestException
+     */
+    public HttpRequest next() throws IOException {
+        discardConsumed();
+
+        if (headerLength < 0) {
+            int end = findHeaderEnd();
+            if (end < 0) {
+                if (limit - start > HttpConstants.MAX_HEADER_SIZE) {
+                    throw new BadRequestException("Request header too large");
+                }
+                return null;
             }
+            headerLength = end - start;
+            parseHead(end);
+        }
+
+        int total = headerLength + contentLength;
+        if (limit - start < total) {
+            return null; // 请求体还没有读完
         }
-        
+
+        request.setBodyRange(headerLength, contentLength);
+        consumed = start + total;
+        headerLength = -1;
+        scanned = 0;
+        contentLength = 0;
         return request;
     }
-    
-    private static void parseRequestBody(BufferedReader in, HttpRequest request) throws IOException {
-        String contentLengthHeader = request.getHeader("Content-Length");
-        if (contentLengthHeader != null) {
-            int contentLength = Integer.parseInt(contentLengthHeader);
-            char[] bodyChars = new char[contentLength];
-            in.read(bodyChars, 0, contentLength);
-            String body = new String(bodyChars);
-            
-            String contentType = request.getHeader("Content-Type");
-            if (contentType != null && contentType.contains("application/x-www-form-urlencoded")) {
-                request.setBodyParams(HttpUtils.parseQueryString(body));
-            } else {
-                request.setBody(body);
+
+    private void discardConsumed() {
+        if (consumed > start) {
+            start = consumed;
+        }
+        if (start == limit && headerLength < 0) {
+            start = limit = consumed = 0; // 缓冲区已空，直接从头开始，无需复制
+        }
+    }
+
+    /**
+     * 保证缓冲区末尾有可写空间：优先把当前请求移动到开头，否则扩容
+     */
+    private void makeRoom() throws IOException {
+        if (limit < buffer.length) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            consumed = Math.max(0, consumed - start);
+            start = 0;
+        } else {
+            if (buffer.length >= HttpConstants.MAX_REQUEST_SIZE) {
+                throw new BadRequestException("Request too large");
+            }
+            byte[] larger = new byte[Math.min(buffer.length * 2, HttpConstants.MAX_REQUEST_SIZE)];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+            wrapped = ByteBuffer.wrap(buffer);
+        }
+        request.rebase(buffer, start);
+    }
+
+    /**
+     * 查找请求头结束标记（空行），返回请求体开始的位置；只扫描新到达的数据
+     */
+    private int findHeaderEnd() {
+        int from = Math.max(start, start + scanned - 3);
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            if (i > start && buffer[i - 1] == '\n') {
+                return i + 1;
+            }
+            if (i > start + 1 && buffer[i - 1] == '\r' && buffer[i - 2] == '\n') {
+                return i + 1;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+
+    /**
+     * 解析请求行和请求头，只记录偏移量
+     */
+    private void parseHead(int end) throws IOException {
+        int lineEnd = indexOf((byte) '\n', start, end);
+        int requestLineEnd = trimEnd(start, lineEnd);
+
+        int firstSpace = indexOf((byte) ' ', start, requestLineEnd);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf((byte) ' ', firstSpace + 1, requestLineEnd);
+        if (firstSpace <= start || secondSpace < 0 || secondSpace == firstSpace + 1) {
+            throw new BadRequestException("Malformed request line");
+        }
+
+        String method = constantOrString(start, firstSpace, GET, "GET", POST, "POST", HEAD, "HEAD");
+        String version = constantOrString(secondSpace + 1, requestLineEnd, HTTP_1_1, "HTTP/1.1", HTTP_1_0, "HTTP/1.0", null, null);
+
+        int targetStart = firstSpace + 1;
+        int queryIndex = indexOf((byte) '?', targetStart, secondSpace);
+        int pathEnd = queryIndex < 0 ? secondSpace : queryIndex;
+        String path = HttpUtils.normalizePath(new String(buffer, targetStart, pathEnd - targetStart, StandardCharsets.UTF_8));
+
+        request.reset(buffer, start, method, path, version);
+        if (queryIndex >= 0) {
+            request.setQueryRange(queryIndex + 1 - start, secondSpace - start);
+        }
+
+        // 解析请求头
+        int lineStart = lineEnd + 1;
+        while (lineStart < end) {
+            int next = indexOf((byte) '\n', lineStart, end);
+            int contentEnd = trimEnd(lineStart, next);
+            if (contentEnd == lineStart) {
+                break; // 空行，请求头结束
             }
+            int colon = indexOf((byte) ':', lineStart, contentEnd);
+            if (colon > lineStart) {
+                int nameEnd = colon;
+                while (nameEnd > lineStart && buffer[nameEnd - 1] == ' ') {
+                    nameEnd--;
+                }
+                int valueStart = colon + 1;
+                while (valueStart < contentEnd && (buffer[valueStart] == ' ' || buffer[valueStart] == '\t')) {
+                    valueStart++;
+                }
+                int valueEnd = contentEnd;
+                while (valueEnd > valueStart && (buffer[valueEnd - 1] == ' ' || buffer[valueEnd - 1] == '\t')) {
+                    valueEnd--;
+                }
+                request.addHeader(lineStart - start, nameEnd - start, valueStart - start, valueEnd - start);
+
+                if (equalsIgnoreCase(lineStart, nameEnd, "Content-Length")) {
+                    contentLength = parseContentLength(valueStart, valueEnd);
+                } else if (equalsIgnoreCase(lineStart, nameEnd, "Transfer-Encoding")) {
+                    throw new BadRequestException("Chunked request bodies are not supported");
+                }
+            }
+            lineStart = next + 1;
+        }
+
+        if ((end - start) + (long) contentLength > HttpConstants.MAX_REQUEST_SIZE) {
+            throw new BadRequestException("Request body too large");
+        }
+    }
+
+    private int parseContentLength(int from, int to) throws IOException {
+        if (from == to) {
+            throw new BadRequestException("Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || value > HttpConstants.MAX_REQUEST_SIZE) {
+                throw new BadRequestException("Invalid Content-Length");
+            }
+            value = value * 10 + digit;
         }
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    private String constantOrString(int from, int to, byte[] a, String aValue, byte[] b, String bValue,
+                                    byte[] c, String cValue) {
+        if (regionEquals(from, to, a)) {
+            return aValue;
+        }
+        if (regionEquals(from, to, b)) {
+            return bValue;
+        }
+        if (c != null && regionEquals(from, to, c)) {
+            return cValue;
+        }
+        return new String(buffer, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    private boolean regionEquals(int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(int from, int to, String expected) {
+        return HttpRequest.equalsIgnoreCase(buffer, from, to, expected);
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int trimEnd(int from, int lineEnd) {
+        int end = lineEnd;
+        if (end > from && buffer[end - 1] == '\r') {
+            end--;
+        }
+        return end;
     }
 }
 
-class HttpRequest {
-    private String method;
-    private String path;
-    private String version;
-    private Map<String, String> headers;
-    private Map<String, String> queryParams;
-    private Map<String, String> bodyParams;
-    private String body;
-    
-    public HttpRequest(String method, String path, String version) {
-        this.method = method;
-        this.path = path;
-        this.version = version;
-        this.headers = new HashMap<>();
-        this.queryParams = new HashMap<>();
-        this.bodyParams = new HashMap<>();
-    }
-    
-    // Getters and Setters
-    public String getMethod() { return method; }
-    public String getPath() { return path; }
-    public String getVersion() { return version; }
-    
-    public String getHeader(String name) { 
-        return headers.get(name.toLowerCase()); 
-    }
-    
-    public void setHeader(String name, String value) {
-        headers.put(name.toLowerCase(), value);
-    }
-    
-    public Map<String, String> getHeaders() { return headers; }
-    
-    public Map<String, String> getQueryParams() { return queryParams; }
-    public void setQueryParams(Map<String, String> queryParams) { 
-        this.queryParams = queryParams; 
-    }
-    
-    public Map<String, String> getBodyParams() { return bodyParams; }
-    public void setBodyParams(Map<String, String> bodyParams) { 
-        this.bodyParams = bodyParams; 
-    }
-    
-    public String getBody() { return body; }
-    public void setBody(String body) { this.body = body; }
-}
\ No newline at end of file
+/**
+ * 请求格式错误，应返回400并关闭连接
+ */
+class BadRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,301 @@
+package server;
+
+import shared.HttpConstants;
+import shared.HttpUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 请求处理逻辑（与连接模型无关）
+ * 阻塞模式的RequestHandler和NIO模式的事件循环共用这一份业务逻辑
+ */
+public class RequestProcessor {
+    // Keep-Alive头部的取值，按当前超时的秒数取用，避免每个响应拼接字符串
+    private static final String[] KEEP_ALIVE_VALUES = new String[Math.max(1, HttpConstants.KEEP_ALIVE_TIMEOUT / 1000) + 1];
+
+    static {
+        for (int seconds = 0; seconds < KEEP_ALIVE_VALUES.length; seconds++) {
+            KEEP_ALIVE_VALUES[seconds] = "timeout=" + seconds;
+        }
+    }
+
+    private UserManager userManager;
+    private final SessionStore sessions;
+    private final AdmissionControl admission;
+    private final Metrics metrics;
+    private final ConnectionTimer timer;
+    private final Router router = new Router();
+
+    public RequestProcessor(UserManager userManager, SessionStore sessions, AdmissionControl admission,
+                            Metrics metrics, ConnectionTimer timer) {
+        this.userManager = userManager;
+        this.sessions = sessions;
+        this.admission = admission;
+        this.metrics = metrics;
+        this.timer = timer;
+
+        // 用户API
+        router.post("/api/register", this::handleRegister);
+        router.post("/api/login", this::handleLogin);
+        router.post("/api/logout", this::handleLogout);
+        router.get("/api/me", this::handleMe);
+
+        // 运行指标（Prometheus文本格式）
+        router.get("/metrics", this::handleMetrics);
+
+        // 重定向根路径到index.html - 302临时重定向
+        router.redirect("/", "/index.html", false);
+        // 301永久重定向测试端点
+        router.redirect("/old-page", "/index.html", true);
+        // 302临时重定向测试端点
+        router.redirect("/temp", "/index.html", false);
+        // POST重定向测试端点
+        router.redirect("POST", "/old-form", "/index.html", true);
+        router.redirect("POST", "/temp-post", "/index.html", false);
+
+        // 其余请求按静态文件处理（支持ETag/Last-Modified条件请求，未修改时返回304）
+        router.fallback(request -> ResponseBuilder.buildFileResponse(request.getPath(), request));
+    }
+
+    /**
+     * 路由表，新的接口在这里注册，不需要修改请求处理流程
+     */
+    public Router getRouter() {
+        return router;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 请求处理完成：记录访问日志和按路由的统计
+     * @param startNanos 开始处理请求时的System.nanoTime()
+     */
+    public void complete(HttpRequest request, HttpResponse response, long startNanos) {
+        metrics.recordRequest(request, response, startNanos);
+        Log.access(request, response, startNanos);
+    }
+
+    public HttpResponse process(HttpRequest request) {
+        String method = request.getMethod();
+
+        // 检查支持的HTTP方法
+        if (!"GET".equals(method) && !"POST".equals(method)) {
+            // 不支持的方法，关闭连接
+            return ResponseBuilder.cannedError(HttpConstants.STATUS_METHOD_NOT_ALLOWED).closing().toResponse();
+        }
+
+        // 按客户端IP限流，令牌不足时直接返回预先生成的429，不进入路由
+        if (!admission.tryAcquire(request.getRemoteAddress())) {
+            return admission.tooManyRequests().toResponse();
+        }
+
+        try {
+            return router.dispatch(request);
+        } catch (Exception e) {
+            Log.error("处理请求时发生错误: " + e);
+            return ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
+        }
+    }
+
+    private HttpResponse handleMetrics(HttpRequest request) {
+        HttpResponse response = new HttpResponse(HttpConstants.STATUS_OK);
+        byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+        response.setBody(body);
+        response.setHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Content-Length", String.valueOf(body.length));
+        response.setHeader("Cache-Control", "no-store");
+        return response;
+    }
+
+    private HttpResponse handleRegister(HttpRequest request) {
+        try {
+            Map<String, String> params = request.getBodyParams();
+            String username = params.get("username");
+            String password = params.get("password");
+
+            if (username == null || username.trim().isEmpty() ||
+                password == null || password.trim().isEmpty()) {
+                return ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_BAD_REQUEST,
+                    "{\"error\": \"Username and password are required\"}"
+                );
+            }
+
+            boolean success = userManager.registerUser(username.trim(), password.trim());
+            if (success) {
+                return ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_OK,
+                    "{\"message\": \"User registered successfully\"}"
+                );
+            } else {
+                return ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_BAD_REQUEST,
+                    "{\"error\": \"Username already exists\"}"
+                );
+            }
+        } catch (RejectedExecutionException e) {
+            return buildBusyResponse();
+        } catch (Exception e) {
+            return ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
+        }
+    }
+
+    private HttpResponse handleLogin(HttpRequest request) {
+        try {
+            Map<String, String> params = request.getBodyParams();
+            String username = params.get("username");
+            String password = params.get("password");
+
+            if (username == null || password == null) {
+                return ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_BAD_REQUEST,
+                    "{\"error\": \"Username and password are required\"}"
+                );
+            }
+
+            boolean success = userManager.loginUser(username, password);
+            if (success) {
+                String token = sessions.create(username);
+                HttpResponse response = ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_OK,
+                    "{\"message\": \"Login successful\", \"token\": \"" + token + "\"}"
+                );
+                response.setHeader("Set-Cookie", sessionCookie(token, sessions.getTtlMillis() / 1000));
+                return response;
+            } else {
+                return ResponseBuilder.buildJsonResponse(
+                    HttpConstants.STATUS_UNAUTHORIZED,
+                    "{\"error\": \"Invalid username or password\"}"
+                );
+            }
+        } catch (RejectedExecutionException e) {
+            return buildBusyResponse();
+        } catch (Exception e) {
+            return ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
+        }
+    }
+
+    private HttpResponse handleLogout(HttpRequest request) {
+        sessions.invalidate(sessionToken(request));
+        HttpResponse response = ResponseBuilder.buildJsonResponse(
+            HttpConstants.STATUS_OK,
+            "{\"message\": \"Logged out\"}"
+        );
+        response.setHeader("Set-Cookie", sessionCookie("", 0));
+        return response;
+    }
+
+    private HttpResponse handleMe(HttpRequest request) {
+        String username = currentUser(request);
+        if (username == null) {
+            return ResponseBuilder.buildJsonResponse(
+                HttpConstants.STATUS_UNAUTHORIZED,
+                "{\"error\": \"Not logged in\"}"
+            );
+        }
+        return ResponseBuilder.buildJsonResponse(
+            HttpConstants.STATUS_OK,
+            "{\"username\": \"" + HttpUtils.escapeJson(username) + "\"}"
+        );
+    }
+
+    /**
+     * 当前请求所属的用户：按Authorization: Bearer或会话cookie中的令牌查找，O(1)；未登录时返回null
+     */
+    public String currentUser(HttpRequest request) {
+        return sessions.validate(sessionToken(request));
+    }
+
+    private static String sessionToken(HttpRequest request) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return request.getCookie(HttpConstants.SESSION_COOKIE);
+    }
+
+    private static String sessionCookie(String token, long maxAgeSeconds) {
+        return HttpConstants.SESSION_COOKIE + "=" + token + "; Path=/; Max-Age=" + maxAgeSeconds
+                + "; HttpOnly; SameSite=Lax";
+    }
+
+    /**
+     * 密码哈希线程池已满：让客户端稍后重试
+     */
+    private static HttpResponse buildBusyResponse() {
+        HttpResponse response = ResponseBuilder.buildJsonResponse(
+            HttpConstants.STATUS_SERVICE_UNAVAILABLE,
+            "{\"error\": \"Server busy, please retry later\"}"
+        );
+        response.setHeader("Retry-After", "1");
+        return response;
+    }
+
+    /**
+     * 根据HTTP版本和Connection头判断是否保持连接
+     */
+    public boolean shouldKeepAlive(HttpRequest request) {
+        // 1. 检查请求的连接头部
+        String requestConnection = request.getHeader("Connection");
+
+        // 2. 根据HTTP版本决定
+        String httpVersion = request.getVersion();
+        boolean isHttp11 = "HTTP/1.1".equals(httpVersion);
+
+        if (isHttp11) {
+            // HTTP/1.1默认保持连接，除非明确指定Connection: close
+            if (requestConnection != null && "close".equalsIgnoreCase(requestConnection.trim())) {
+                Log.debug("HTTP/1.1请求明确要求关闭连接");
+                return false;
+            }
+            Log.debug("HTTP/1.1请求，保持连接");
+            return true;
+        } else {
+            // HTTP/1.0默认关闭连接，除非明确指定Connection: keep-alive
+            if (requestConnection != null && "keep-alive".equalsIgnoreCase(requestConnection.trim())) {
+                Log.debug("HTTP/1.0请求明确要求保持连接");
+                return true;
+            }
+            Log.debug("HTTP/1.0请求，关闭连接");
+            return false;
+        }
+    }
+
+    /**
+     * 发送前的收尾：决定是否保持连接并设置连接头部，返回是否保持连接
+     */
+    public boolean finishResponse(HttpRequest request, HttpResponse response, boolean lastRequest) {
+        boolean keepAlive = shouldKeepAlive(request) && !lastRequest;
+        CannedResponse canned = response.getCanned();
+        if (canned != null) {
+            // 不设置头部，保留预序列化的字节，发送时按keepAlive选择连接头部
+            return keepAlive && !canned.isAlwaysClose();
+        }
+        if (response.getStreamingBody() != null && response.getHeader("Content-Length") == null
+                && !"HTTP/1.1".equals(request.getVersion())) {
+            // 长度未知且HTTP/1.0不支持chunked，只能用关闭连接来标记响应体结束
+            response.setChunked(false);
+            keepAlive = false;
+        }
+        applyConnectionHeaders(response, keepAlive);
+        return keepAlive;
+    }
+
+    /**
+     * 根据是否保持连接设置响应的连接头部
+     * Keep-Alive的timeout取连接计时器当前实际使用的超时（负载高时会缩短），向下取整到秒，至少1秒，
+     * 客户端按这个值回收空闲连接，不会在服务器已经关闭连接之后还拿来发送
+     */
+    public void applyConnectionHeaders(HttpResponse response, boolean keepAlive) {
+        if (keepAlive) {
+            long seconds = Math.max(1, timer.keepAliveTimeout() / 1000);
+            response.setHeader("Connection", "keep-alive");
+            response.setHeader("Keep-Alive", KEEP_ALIVE_VALUES[(int) Math.min(seconds, KEEP_ALIVE_VALUES.length - 1)]);
+        } else {
+            response.setHeader("Connection", "close");
+        }
+    }
+}
@@ -3,159 +3,460 @@ package server;
 import shared.HttpConstants;
 import shared.HttpUtils;
 import java.io.*;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
 
 public class ResponseBuilder {
+    private static final StaticFileCache fileCache = new StaticFileCache(Paths.get(HttpConstants.WEBROOT),
+            HttpConstants.STATIC_CACHE_MAX_BYTES, HttpConstants.STATIC_CACHE_MAX_FILE_SIZE);
+
+    public static StaticFileCache getFileCache() {
+        return fileCache;
+    }
     
     public static void build(HttpResponse response, OutputStream out) throws IOException {
-        StringBuilder headerBuilder = new StringBuilder();
-        
-        // 状态行
-        headerBuilder.append(HttpConstants.HTTP_VERSION)
-                    .append(" ")
-                    .append(response.getStatusCode())
-                    .append(" ")
-                    .append(HttpConstants.STATUS_MESSAGES.get(response.getStatusCode()))
-                    .append(HttpConstants.CRLF);
-        
-        // 默认头部
-        response.setHeaderIfAbsent("Server", "SimpleJavaHTTPServer/1.0");
-        response.setHeaderIfAbsent("Date", new Date().toString());
-        response.setHeaderIfAbsent("Connection", "keep-alive");
-        
-        // 写入头部
-        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
-            headerBuilder.append(header.getKey())
-                        .append(": ")
-                        .append(header.getValue())
-                        .append(HttpConstants.CRLF);
-        }
-        
-        headerBuilder.append(HttpConstants.CRLF);
-        
-        // 发送头部
-        out.write(headerBuilder.toString().getBytes(HttpConstants.DEFAULT_CHARSET));
-        
-        // 发送响应体（如果有）
-        if (response.getBody() != null && response.getBody().length > 0) {
-            out.write(response.getBody());
-        }
-        
-        out.flush();
+        build(response, out, null, new ResponseWriter(), true);
+    }
+
+    /**
+     * 发送响应；channel不为null时文件响应体用FileChannel.transferTo发送（零拷贝）
+     * writer由连接复用，头部和小响应体在其中拼好后一次写出
+     * keepAlive只用于选择预序列化响应的连接头部，普通响应的连接头部已经由RequestProcessor设置
+     */
+    public static void build(HttpResponse response, OutputStream out, WritableByteChannel channel,
+                             ResponseWriter writer, boolean keepAlive) throws IOException {
+        CannedResponse canned = response.getCanned();
+        if (canned != null) {
+            canned.writeTo(out, keepAlive);
+            return;
+        }
+        writer.reset();
+        if (response.getStreamingBody() != null) {
+            writeStreaming(response, out, writer);
+            return;
+        }
+
+        writer.writeHead(response);
+        byte[] body = response.getBody();
+        if (response.getBodyFile() != null) {
+            writer.writeTo(out);
+            out.flush();
+            transferFile(response, out, channel);
+        } else if (body != null && body.length > ResponseWriter.MAX_INLINE_BODY) {
+            // 大响应体直接写出，不复制进缓冲区
+            writer.writeTo(out);
+            out.write(body);
+        } else {
+            if (body != null) {
+                writer.write(body, 0, body.length);
+            }
+            writer.writeTo(out);
+        }
+        // 不在这里flush：流水线上的多个响应由调用方攒在一起再发送
+    }
+
+    /**
+     * 发送流式响应：长度已知时直接写出；否则HTTP/1.1用chunked编码，HTTP/1.0写到连接关闭为止
+     */
+    static void writeStreaming(HttpResponse response, OutputStream out, ResponseWriter writer) throws IOException {
+        if (response.getHeader("Content-Length") != null || !response.isChunked()) {
+            writer.writeHead(response);
+            writer.writeTo(out);
+            response.getStreamingBody().writeTo(out);
+            return;
+        }
+
+        response.setHeader("Transfer-Encoding", "chunked");
+        writer.writeHead(response);
+        writer.writeTo(out);
+        ChunkedOutputStream chunked = new ChunkedOutputStream(out, HttpConstants.BUFFER_SIZE);
+        response.getStreamingBody().writeTo(chunked);
+        chunked.close();
+    }
+
+    /**
+     * 发送文件响应体，堆内存占用与文件大小无关
+     */
+    private static void transferFile(HttpResponse response, OutputStream out, WritableByteChannel channel) throws IOException {
+        try (FileChannel file = FileChannel.open(response.getBodyFile(), StandardOpenOption.READ)) {
+            long position = response.getBodyOffset();
+            long end = position + response.getBodyLength();
+
+            if (channel != null) {
+                // 内核可以直接用sendfile从页缓存发送到socket
+                while (position < end) {
+                    long n = file.transferTo(position, end - position, channel);
+                    if (n <= 0 && position >= file.size()) {
+                        throw new IOException("File truncated while sending: " + response.getBodyFile());
+                    }
+                    position += n;
+                }
+                return;
+            }
+
+            // 没有可用的通道时用固定大小的缓冲区分段复制
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int n = file.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("File truncated while sending: " + response.getBodyFile());
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+            }
+        }
     }
     
    public static HttpResponse buildFileResponse(String path) {
-    File file = new File("webroot" + path);
-    
-    if (!file.exists() || file.isDirectory()) {
+    return buildFileResponse(path, null);
+}
+
+/**
+ * 静态文件响应；request不为null时处理条件请求（If-None-Match / If-Modified-Since）
+ */
+public static HttpResponse buildFileResponse(String path, HttpRequest request) {
+    FileLookup lookup;
+    try {
+        lookup = fileCache.lookup(path);
+        CachedFile cached = lookup.getCached();
+        if (cached != null) {
+            // 客户端接受gzip且有压缩变体时发送压缩版本
+            boolean gzip = cached.hasGzip() && request != null
+                    && HttpUtils.acceptsEncoding(request.getHeader("Accept-Encoding"), "gzip");
+            String etag = gzip ? cached.getGzipEntityTag() : cached.getEntityTag();
+
+            HttpResponse response;
+            HttpResponse ranged;
+            if (isNotModified(request, etag, cached.getLastModified())) {
+                response = buildNotModifiedResponse(etag, cached.getLastModifiedHeader());
+            } else if ((ranged = buildRangeResponse(request, cached.getContentType(), cached.getContent().length,
+                    cached.getEntityTag(), cached.getLastModified(), cached.getLastModifiedHeader(),
+                    cached.getContent(), null)) != null) {
+                // 范围请求总是按未压缩的原始内容计算区间
+                response = ranged;
+                gzip = false;
+            } else {
+                response = new HttpResponse(HttpConstants.STATUS_OK);
+                response.setBody(gzip ? cached.getGzipContent() : cached.getContent());
+                response.setHeader("Content-Type", cached.getContentType());
+                response.setHeader("Content-Length", gzip ? cached.getGzipContentLength() : cached.getContentLength());
+                response.setHeader("ETag", etag);
+                if (cached.getLastModifiedHeader() != null) {
+                    response.setHeader("Last-Modified", cached.getLastModifiedHeader());
+                }
+                if (!gzip) {
+                    response.setHeader("Accept-Ranges", "bytes");
+                }
+            }
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
+            }
+            if (cached.hasGzip()) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            return response;
+        }
+    } catch (IOException e) {
+        return buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
+    }
+
+    // 不在缓存中（不存在或超过缓存的单文件上限），直接读取磁盘，文件属性用查找时读到的
+    Path file = lookup.getFile();
+    BasicFileAttributes attributes = lookup.getAttributes();
+    if (attributes == null || attributes.isDirectory()) {
         return buildErrorResponse(HttpConstants.STATUS_NOT_FOUND);
     }
-    
+
     try {
-        FileInputStream fis = new FileInputStream(file);
-        byte[] content = new byte[(int) file.length()];
-        fis.read(content);
-        fis.close();
-        
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String lastModifiedHeader = lastModified > 0 ? HttpUtils.formatHttpDate(lastModified) : null;
+        String etag = fileCache.getEntityTag(file, attributes);
+        if (isNotModified(request, etag, lastModified)) {
+            return buildNotModifiedResponse(etag, lastModifiedHeader);
+        }
+
+        String mimeType = HttpUtils.getMimeType(path);
+        boolean varies = HttpUtils.isCompressible(mimeType) && attributes.size() >= HttpConstants.MIN_COMPRESS_SIZE;
+        HttpResponse ranged = buildRangeResponse(request, mimeType, attributes.size(), etag,
+                lastModified, lastModifiedHeader, null, file);
+        if (ranged != null) {
+            if (varies) {
+                ranged.setHeader("Vary", "Accept-Encoding");
+            }
+            return ranged;
+        }
+        if (varies && request != null && HttpUtils.acceptsEncoding(request.getHeader("Accept-Encoding"), "gzip")) {
+            return buildGzipStreamResponse(file, mimeType, etag, lastModified, lastModifiedHeader, request);
+        }
+
         HttpResponse response = new HttpResponse(HttpConstants.STATUS_OK);
-        response.setBody(content);
-        response.setHeader("Content-Type", HttpUtils.getMimeType(path));
-        response.setHeader("Content-Length", String.valueOf(content.length));
-        
+        if (varies) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (attributes.size() > HttpConstants.ZERO_COPY_THRESHOLD) {
+            // 大文件：只记录文件位置，发送时再用transferTo
+            response.setFileBody(file, 0, attributes.size());
+        } else {
+            response.setBody(Files.readAllBytes(file));
+        }
+        response.setHeader("Content-Type", mimeType);
+        response.setHeader("Content-Length", String.valueOf(attributes.size()));
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+
         // 添加Last-Modified头支持304
-        long lastModified = file.lastModified();
-        if (lastModified > 0) {
-            response.setHeader("Last-Modified", new Date(lastModified).toString());
+        if (lastModifiedHeader != null) {
+            response.setHeader("Last-Modified", lastModifiedHeader);
         }
-        
+
         return response;
-        
+
     } catch (IOException e) {
         return buildErrorResponse(HttpConstants.STATUS_INTERNAL_ERROR);
     }
 }
 
-public static HttpResponse buildRedirectResponse(String location) {
-    System.out.println("Building 302 redirect response to: " + location);
-    
-    HttpResponse response = new HttpResponse(HttpConstants.STATUS_FOUND);
-    response.setHeader("Location", location);
-    response.setHeader("Content-Length", "0");
+/**
+ * 不在缓存中的大文本文件：边读边压缩，用chunked编码流式发送，不把压缩结果整体放进内存
+ */
+private static HttpResponse buildGzipStreamResponse(Path file, String mimeType, String identityEtag,
+                                                    long lastModified, String lastModifiedHeader,
+                                                    HttpRequest request) {
+    String etag = identityEtag.substring(0, identityEtag.length() - 1) + "-gzip\"";
+    HttpResponse response;
+    if (isNotModified(request, etag, lastModified)) {
+        response = buildNotModifiedResponse(etag, lastModifiedHeader);
+    } else {
+        response = new HttpResponse(HttpConstants.STATUS_OK);
+        response.setHeader("Content-Type", mimeType);
+        response.setHeader("ETag", etag);
+        if (lastModifiedHeader != null) {
+            response.setHeader("Last-Modified", lastModifiedHeader);
+        }
+        response.setStreamingBody(out -> {
+            try (InputStream in = Files.newInputStream(file)) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out, HttpConstants.BUFFER_SIZE);
+                byte[] buffer = new byte[HttpConstants.BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    gzip.write(buffer, 0, n);
+                }
+                gzip.finish();
+            }
+        });
+    }
+    response.setHeader("Content-Encoding", "gzip");
+    response.setHeader("Vary", "Accept-Encoding");
     return response;
 }
 
-// 添加301永久重定向
-public static HttpResponse buildPermanentRedirectResponse(String location) {
-    System.out.println("Building 301 redirect response to: " + location);
-    
-    HttpResponse response = new HttpResponse(HttpConstants.STATUS_MOVED_PERMANENTLY);
-    response.setHeader("Location", location);
-    response.setHeader("Content-Length", "0");
+/**
+ * 处理Range请求，内容来自内存（content）或磁盘文件（file）
+ * 不需要按范围响应时返回null，由调用方发送完整内容
+ */
+private static HttpResponse buildRangeResponse(HttpRequest request, String contentType, long length,
+                                               String etag, long lastModified, String lastModifiedHeader,
+                                               byte[] content, Path file) {
+    if (request == null || !"GET".equals(request.getMethod())) {
+        return null;
+    }
+    String rangeHeader = request.getHeader("Range");
+    if (rangeHeader == null || !isIfRangeSatisfied(request.getHeader("If-Range"), etag, lastModified)) {
+        return null;
+    }
+    List<long[]> ranges = HttpUtils.parseByteRanges(rangeHeader, length);
+    if (ranges == null) {
+        return null;
+    }
+
+    HttpResponse response;
+    if (ranges.isEmpty()) {
+        response = buildErrorResponse(HttpConstants.STATUS_RANGE_NOT_SATISFIABLE);
+        response.setHeader("Content-Range", "bytes */" + length);
+    } else if (ranges.size() == 1) {
+        long start = ranges.get(0)[0];
+        long count = ranges.get(0)[1] - start + 1;
+        response = new HttpResponse(HttpConstants.STATUS_PARTIAL_CONTENT);
+        if (content != null) {
+            response.setBody(Arrays.copyOfRange(content, (int) start, (int) (start + count)));
+        } else {
+            // 和完整文件一样交给transferTo，只是换了起止位置
+            response.setFileBody(file, start, count);
+        }
+        response.setHeader("Content-Type", contentType);
+        response.setHeader("Content-Range", "bytes " + start + "-" + ranges.get(0)[1] + "/" + length);
+        response.setHeader("Content-Length", String.valueOf(count));
+    } else {
+        response = buildMultipartRangeResponse(ranges, contentType, length, content, file);
+    }
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("ETag", etag);
+    if (lastModifiedHeader != null) {
+        response.setHeader("Last-Modified", lastModifiedHeader);
+    }
     return response;
 }
-    
-    public static HttpResponse buildJsonResponse(int statusCode, String json) {
-        HttpResponse response = new HttpResponse(statusCode);
-        response.setBody(json.getBytes());
-        response.setHeader("Content-Type", "application/json");
-        response.setHeader("Content-Length", String.valueOf(json.length()));
-        return response;
+
+/**
+ * If-Range：实体标签用强比较，日期必须与Last-Modified完全一致；不满足时发送完整内容
+ */
+private static boolean isIfRangeSatisfied(String ifRange, String etag, long lastModified) {
+    if (ifRange == null) {
+        return true;
     }
-    
-    public static HttpResponse buildErrorResponse(int statusCode) {
-        String message = HttpConstants.STATUS_MESSAGES.get(statusCode);
-        String html = "<!DOCTYPE html><html><head><title>" + statusCode + " " + message + 
-                     "</title></head><body><h1>" + statusCode + " " + message + 
-                     "</h1></body></html>";
-        
-        HttpResponse response = new HttpResponse(statusCode);
-        response.setBody(html.getBytes());
-        response.setHeader("Content-Type", "text/html");
-        response.setHeader("Content-Length", String.valueOf(html.length()));
+    String value = ifRange.trim();
+    if (value.startsWith("\"") || value.startsWith("W/")) {
+        return value.equals(etag);
+    }
+    long date = HttpUtils.parseHttpDate(value);
+    return date >= 0 && lastModified > 0 && lastModified / 1000 == date / 1000;
+}
+
+/**
+ * 多个区间：multipart/byteranges，每个部分带自己的Content-Type和Content-Range
+ * 总长度事先算好，文件内容发送时再按区间从FileChannel读取
+ */
+private static HttpResponse buildMultipartRangeResponse(List<long[]> ranges, String contentType, long length,
+                                                        byte[] content, Path file) {
+    String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+    byte[][] partHeads = new byte[ranges.size()][];
+    long total = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+        long[] range = ranges.get(i);
+        String head = (i == 0 ? "" : HttpConstants.CRLF) + "--" + boundary + HttpConstants.CRLF
+                + "Content-Type: " + contentType + HttpConstants.CRLF
+                + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + HttpConstants.CRLF
+                + HttpConstants.CRLF;
+        partHeads[i] = head.getBytes(StandardCharsets.US_ASCII);
+        total += partHeads[i].length + range[1] - range[0] + 1;
+    }
+    byte[] tail = (HttpConstants.CRLF + "--" + boundary + "--" + HttpConstants.CRLF).getBytes(StandardCharsets.US_ASCII);
+    total += tail.length;
+
+    HttpResponse response = new HttpResponse(HttpConstants.STATUS_PARTIAL_CONTENT);
+    response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+    response.setHeader("Content-Length", String.valueOf(total));
+    if (content != null) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream((int) total);
+        for (int i = 0; i < ranges.size(); i++) {
+            body.write(partHeads[i], 0, partHeads[i].length);
+            body.write(content, (int) ranges.get(i)[0], (int) (ranges.get(i)[1] - ranges.get(i)[0] + 1));
+        }
+        body.write(tail, 0, tail.length);
+        response.setBody(body.toByteArray());
         return response;
     }
-    
+
+    response.setStreamingBody(out -> {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeads[i]);
+                long position = ranges.get(i)[0];
+                long end = ranges.get(i)[1] + 1;
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        throw new IOException("File truncated while sending: " + file);
+                    }
+                    out.write(buffer.array(), 0, n);
+                    position += n;
+                }
+            }
+            out.write(tail);
+        }
+    });
+    return response;
 }
 
-class HttpResponse {
-    private int statusCode;
-    private Map<String, String> headers;
-    private byte[] body;
-    
-    public HttpResponse(int statusCode) {
-        this.statusCode = statusCode;
-        this.headers = new HashMap<>();
-        this.body = new byte[0];
+/**
+ * 判断条件GET是否可以返回304
+ * 有If-None-Match时只比较ETag（弱比较），否则才看If-Modified-Since
+ */
+static boolean isNotModified(HttpRequest request, String etag, long lastModified) {
+    if (request == null || !"GET".equals(request.getMethod())) {
+        return false;
     }
-    
-    // Getters and Setters
-    public int getStatusCode() { return statusCode; }
-    public void setStatusCode(int statusCode) { this.statusCode = statusCode; }
-    
-    public Map<String, String> getHeaders() { return headers; }
-    
-    // 修复：不转换大小写，保持原始头部名称
-    public String getHeader(String name) { 
-        // 先尝试精确匹配
-        String value = headers.get(name);
-        if (value != null) {
-            return value;
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
         }
-        // 如果没有找到，尝试小写匹配（向后兼容）
-        return headers.get(name.toLowerCase());
+        return false;
+    }
+
+    long since = HttpUtils.parseHttpDate(request.getHeader("If-Modified-Since"));
+    // HTTP日期精确到秒
+    return since >= 0 && lastModified > 0 && lastModified / 1000 <= since / 1000;
+}
+
+/**
+ * 304响应：只带验证器，不带响应体
+ */
+static HttpResponse buildNotModifiedResponse(String etag, String lastModifiedHeader) {
+    HttpResponse response = new HttpResponse(HttpConstants.STATUS_NOT_MODIFIED);
+    response.setHeader("ETag", etag);
+    if (lastModifiedHeader != null) {
+        response.setHeader("Last-Modified", lastModifiedHeader);
     }
+    return response;
+}
+
+/**
+ * 302临时重定向（每次都重新序列化，固定的重定向用CannedResponse.redirect在启动时生成一次）
+ */
+public static HttpResponse buildRedirectResponse(String location) {
+    return CannedResponse.redirect(HttpConstants.STATUS_FOUND, location).toResponse();
+}
+
+// 添加301永久重定向
+public static HttpResponse buildPermanentRedirectResponse(String location) {
+    return CannedResponse.redirect(HttpConstants.STATUS_MOVED_PERMANENTLY, location).toResponse();
+}
     
-    public void setHeader(String name, String value) {
-        // 保持原始头部名称，不转换为小写
-        headers.put(name, value);
+    public static HttpResponse buildJsonResponse(int statusCode, String json) {
+        HttpResponse response = new HttpResponse(statusCode);
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        response.setBody(body);
+        response.setHeader("Content-Type", "application/json");
+        response.setHeader("Content-Length", String.valueOf(body.length)); // 按字节数而不是字符数
+        return response;
     }
     
-    public void setHeaderIfAbsent(String name, String value) {
-        headers.putIfAbsent(name, value);
+    /**
+     * 错误响应：新的可修改响应，没有修改时直接发送启动时序列化好的字节
+     */
+    public static HttpResponse buildErrorResponse(int statusCode) {
+        return CannedResponse.of(statusCode).toResponse();
+    }
+
+    /**
+     * 启动时序列化好的错误响应，不经过HttpResponse，用于直接写socket的路径（400、拒绝连接等）
+     */
+    public static CannedResponse cannedError(int statusCode) {
+        return CannedResponse.of(statusCode);
     }
     
-    public byte[] getBody() { return body; }
-    public void setBody(byte[] body) { this.body = body; }
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+package server;
+
+import shared.HttpConstants;
+import shared.HttpUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 响应序列化器：状态行、常用头部名、Server和Date头部都是预先编码好的字节片段，
+ * 头部和小响应体拼进同一个可复用的缓冲区后一次写出。
+ * 稳定状态下（缓冲区已经够大）序列化一个响应不创建任何String或byte[]。
+ * 每个连接一个实例，不是线程安全的。
+ */
+public class ResponseWriter {
+    public static final String SERVER_NAME = "SimpleJavaHTTPServer/1.0";
+
+    // 小于等于该大小的响应体和头部拼在一起发送，更大的单独写出，避免复制
+    static final int MAX_INLINE_BODY = 16 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final byte[] SERVER_LINE = line("Server", SERVER_NAME);
+    private static final byte[] KEEP_ALIVE_LINE = line("Connection", "keep-alive");
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static {
+        for (Map.Entry<Integer, String> status : HttpConstants.STATUS_MESSAGES.entrySet()) {
+            STATUS_LINES[status.getKey()] = statusLine(status.getKey(), status.getValue());
+        }
+        String[] names = {"Content-Type", "Content-Length", "Content-Encoding", "Content-Range", "Connection",
+                "Keep-Alive", "ETag", "Last-Modified", "Accept-Ranges", "Vary", "Location", "Transfer-Encoding",
+                "Retry-After", "Set-Cookie", "Cache-Control"};
+        for (String name : names) {
+            HEADER_NAMES.put(name, (name + ": ").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private byte[] buffer = new byte[1024];
+    private int count = 0;
+
+    /**
+     * 清空缓冲区，准备序列化下一个响应
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * 写入状态行和全部头部（以空行结束），不修改response
+     */
+    public void writeHead(HttpResponse response) {
+        byte[] status = response.getStatusCode() >= 0 && response.getStatusCode() < STATUS_LINES.length
+                ? STATUS_LINES[response.getStatusCode()] : null;
+        if (status == null) {
+            status = statusLine(response.getStatusCode(), HttpConstants.STATUS_MESSAGES.get(response.getStatusCode()));
+        }
+        write(status, 0, status.length);
+
+        Map<String, String> headers = response.getHeaders();
+        if (!headers.containsKey("Server")) {
+            write(SERVER_LINE, 0, SERVER_LINE.length);
+        }
+        if (!headers.containsKey("Date")) {
+            byte[] date = DateHeader.get();
+            write(date, 0, date.length);
+        }
+        if (!headers.containsKey("Connection")) {
+            write(KEEP_ALIVE_LINE, 0, KEEP_ALIVE_LINE.length);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            byte[] name = HEADER_NAMES.get(header.getKey());
+            if (name != null) {
+                write(name, 0, name.length);
+            } else {
+                writeAscii(header.getKey());
+                write(COLON_SPACE, 0, COLON_SPACE.length);
+            }
+            writeAscii(header.getValue());
+            write(CRLF, 0, CRLF.length);
+        }
+        write(CRLF, 0, CRLF.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * 把缓冲区内容写到输出流，不flush
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[count];
+        System.arraycopy(buffer, 0, copy, 0, count);
+        return copy;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 头部只允许ISO-8859-1字符，逐个字符写入，不经过getBytes()
+     */
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, count + extra)];
+            System.arraycopy(buffer, 0, larger, 0, count);
+            buffer = larger;
+        }
+    }
+
+    static byte[] statusLine(int code) {
+        return statusLine(code, HttpConstants.STATUS_MESSAGES.get(code));
+    }
+
+    private static byte[] statusLine(int code, String message) {
+        return (HttpConstants.HTTP_VERSION + " " + code + " " + message + HttpConstants.CRLF)
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] line(String name, String value) {
+        return (name + ": " + value + HttpConstants.CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+}
+
+/**
+ * 缓存的 "Date: ...\r\n" 头部行，每秒最多重新生成一次
+ */
+final class DateHeader {
+    private static volatile DateHeader current = new DateHeader(System.currentTimeMillis() / 1000);
+
+    private final long second;
+    private final byte[] line;
+
+    private DateHeader(long second) {
+        this.second = second;
+        this.line = ResponseWriter.line("Date", HttpUtils.formatHttpDate(second * 1000));
+    }
+
+    static byte[] get() {
+        long now = System.currentTimeMillis() / 1000;
+        DateHeader cached = current;
+        if (cached.second != now) {
+            // 多个线程可能同时刷新，结果相同，谁覆盖谁都可以
+            cached = new DateHeader(now);
+            current = cached;
+        }
+        return cached.line;
+    }
+}
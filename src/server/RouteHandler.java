@@ -0,0 +1,9 @@
+package server;
+
+/**
+ * 路由处理器，通过Router注册到某个方法和路径上
+ */
+@FunctionalInterface
+public interface RouteHandler {
+    HttpResponse handle(HttpRequest request) throws Exception;
+}
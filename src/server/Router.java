@@ -0,0 +1,283 @@
+package server;
+
+import shared.HttpConstants;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 请求路由
+ * 固定路径放在“方法 -> 路径”哈希表里，一次查表即可；
+ * 带参数（/users/{id}）或前缀（/static/*）的模式放在按路径段组织的前缀树里，匹配时间与路径段数成正比。
+ * 两者都没有匹配时交给fallback（默认是静态文件）。
+ * 路由在启动时注册，之后只读，可以被多个线程同时使用。
+ */
+public class Router {
+    public static final String ANY_METHOD = "*";
+    public static final String FALLBACK_ROUTE = "fallback"; // 交给fallback的请求的路由名
+
+    private final Map<String, Map<String, Match>> exact = new HashMap<>();
+    private final Node root = new Node();
+    private int maxParams = 0;
+    private int routeCount = 0;
+    private RouteHandler fallback;
+
+    public Router get(String pattern, RouteHandler handler) {
+        return route("GET", pattern, handler);
+    }
+
+    public Router post(String pattern, RouteHandler handler) {
+        return route("POST", pattern, handler);
+    }
+
+    /**
+     * 注册路由；method为ANY_METHOD时匹配任何方法
+     * pattern中的 {name} 匹配一个路径段，末尾的 /* 匹配该前缀下的所有路径（剩余部分作为参数"*"）
+     */
+    public Router route(String method, String pattern, RouteHandler handler) {
+        if (pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        RouteHandler target = handler;
+        // 记下匹配到的模式，按路由统计时不用再匹配一次
+        handler = request -> {
+            request.setRoute(pattern);
+            return target.handle(request);
+        };
+        if (!pattern.contains("{") && !pattern.endsWith("/*")) {
+            Map<String, Match> routes = exact.computeIfAbsent(method, m -> new HashMap<>());
+            if (routes.putIfAbsent(pattern, new Match(handler, Collections.emptyMap())) != null) {
+                throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+            }
+        } else {
+            insert(method, pattern, handler);
+        }
+        routeCount++;
+        return this;
+    }
+
+    /**
+     * 注册重定向，对任何方法生效；响应在注册时就序列化好
+     */
+    public Router redirect(String path, String location, boolean permanent) {
+        return redirect(ANY_METHOD, path, location, permanent);
+    }
+
+    public Router redirect(String method, String path, String location, boolean permanent) {
+        CannedResponse response = CannedResponse.redirect(permanent ? HttpConstants.STATUS_MOVED_PERMANENTLY
+                : HttpConstants.STATUS_FOUND, location);
+        return route(method, path, request -> response.toResponse());
+    }
+
+    /**
+     * 没有路由匹配时使用的处理器
+     */
+    public Router fallback(RouteHandler handler) {
+        this.fallback = handler;
+        return this;
+    }
+
+    public int size() {
+        return routeCount;
+    }
+
+    /**
+     * 查找处理器，没有匹配的路由时返回null
+     */
+    public Match match(String method, String path) {
+        Match match = lookupExact(method, path);
+        if (match != null) {
+            return match;
+        }
+        if (root.isEmpty()) {
+            return null;
+        }
+        return search(root, path, 1, method, new String[maxParams * 2], 0);
+    }
+
+    /**
+     * 分发请求；没有匹配的路由时交给fallback，没有fallback时返回404
+     */
+    HttpResponse dispatch(HttpRequest request) throws Exception {
+        Match match = match(request.getMethod(), request.getPath());
+        if (match == null) {
+            request.setRoute(FALLBACK_ROUTE);
+            return fallback != null ? fallback.handle(request)
+                    : ResponseBuilder.buildErrorResponse(HttpConstants.STATUS_NOT_FOUND);
+        }
+        if (!match.params.isEmpty()) {
+            request.setPathParams(match.params);
+        }
+        return match.handler.handle(request);
+    }
+
+    private Match lookupExact(String method, String path) {
+        Map<String, Match> routes = exact.get(method);
+        Match match = routes == null ? null : routes.get(path);
+        if (match == null) {
+            routes = exact.get(ANY_METHOD);
+            match = routes == null ? null : routes.get(path);
+        }
+        return match;
+    }
+
+    private void insert(String method, String pattern, RouteHandler handler) {
+        Node node = root;
+        int params = 0;
+        int pos = 1;
+        while (pos < pattern.length()) {
+            int end = pattern.indexOf('/', pos);
+            if (end < 0) {
+                end = pattern.length();
+            }
+            String segment = pattern.substring(pos, end);
+            if (segment.equals("*")) {
+                if (end != pattern.length()) {
+                    throw new IllegalArgumentException("'*' must be the last segment: " + pattern);
+                }
+                params++;
+                addHandler(node.prefixHandlers(), method, pattern, handler);
+                maxParams = Math.max(maxParams, params);
+                return;
+            }
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.param.paramName = name;
+                } else if (!node.param.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting parameter names {" + node.param.paramName
+                            + "} and {" + name + "} in " + pattern);
+                }
+                node = node.param;
+                params++;
+            } else {
+                node = node.children().computeIfAbsent(segment, s -> new Node());
+            }
+            pos = end + 1;
+        }
+        addHandler(node.handlers(), method, pattern, handler);
+        maxParams = Math.max(maxParams, params);
+    }
+
+    private static void addHandler(Map<String, RouteHandler> handlers, String method, String pattern,
+                                   RouteHandler handler) {
+        if (handlers.putIfAbsent(method, handler) != null) {
+            throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+        }
+    }
+
+    /**
+     * 逐段匹配：静态段优先，其次是{参数}，都不匹配时退回到最近的前缀路由
+     */
+    private Match search(Node node, String path, int pos, String method, String[] params, int count) {
+        if (pos >= path.length()) {
+            RouteHandler handler = handlerFor(node.handlers, method);
+            if (handler != null) {
+                return new Match(handler, toMap(params, count));
+            }
+        } else {
+            int end = path.indexOf('/', pos);
+            if (end < 0) {
+                end = path.length();
+            }
+            int next = end < path.length() ? end + 1 : end;
+            if (node.children != null) {
+                Node child = node.children.get(path.substring(pos, end));
+                if (child != null) {
+                    Match match = search(child, path, next, method, params, count);
+                    if (match != null) {
+                        return match;
+                    }
+                }
+            }
+            if (node.param != null && end > pos) {
+                params[count * 2] = node.param.paramName;
+                params[count * 2 + 1] = path.substring(pos, end);
+                Match match = search(node.param, path, next, method, params, count + 1);
+                if (match != null) {
+                    return match;
+                }
+            }
+        }
+
+        RouteHandler prefix = handlerFor(node.prefixHandlers, method);
+        if (prefix != null) {
+            params[count * 2] = "*";
+            params[count * 2 + 1] = pos >= path.length() ? "" : path.substring(pos);
+            return new Match(prefix, toMap(params, count + 1));
+        }
+        return null;
+    }
+
+    private static RouteHandler handlerFor(Map<String, RouteHandler> handlers, String method) {
+        if (handlers == null) {
+            return null;
+        }
+        RouteHandler handler = handlers.get(method);
+        return handler != null ? handler : handlers.get(ANY_METHOD);
+    }
+
+    private static Map<String, String> toMap(String[] params, int count) {
+        if (count == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            map.put(params[i * 2], params[i * 2 + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * 匹配结果：处理器和路径参数
+     */
+    public static final class Match {
+        private final RouteHandler handler;
+        private final Map<String, String> params;
+
+        Match(RouteHandler handler, Map<String, String> params) {
+            this.handler = handler;
+            this.params = params;
+        }
+
+        public RouteHandler getHandler() { return handler; }
+        public Map<String, String> getParams() { return params; }
+    }
+
+    /**
+     * 前缀树节点，对应一个路径段
+     */
+    private static final class Node {
+        Map<String, Node> children;                 // 静态段
+        Node param;                                 // {参数}段
+        String paramName;
+        Map<String, RouteHandler> handlers;         // 在这个节点结束的路由，方法 -> 处理器
+        Map<String, RouteHandler> prefixHandlers;   // 以这个节点为前缀的 /* 路由
+
+        Map<String, Node> children() {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children;
+        }
+
+        Map<String, RouteHandler> handlers() {
+            if (handlers == null) {
+                handlers = new HashMap<>(4);
+            }
+            return handlers;
+        }
+
+        Map<String, RouteHandler> prefixHandlers() {
+            if (prefixHandlers == null) {
+                prefixHandlers = new HashMap<>(4);
+            }
+            return prefixHandlers;
+        }
+
+        boolean isEmpty() {
+            return children == null && param == null && handlers == null && prefixHandlers == null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import java.net.InetAddress;
+
+/**
+ * JDK Flight Recorder事件：连接的接收和关闭、每个请求的解析/处理/发送耗时、静态文件缓存查找
+ * 没有在录制（或事件被关闭）时begin方法返回null，调用方不再取时间戳，只剩一次开关检查，
+ * 因此可以在生产环境长期开着低开销的录制，慢请求出现后再从录制里找原因。
+ *
+ * 默认设置：请求事件只记录超过10ms的，缓存查找事件关闭；jfr/http-server.jfc 打开全部事件：
+ * java -XX:StartFlightRecording:settings=default,settings=jfr/http-server.jfc,filename=server.jfr ...
+ */
+public final class ServerEvents {
+    private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+    private static final EventType CONNECTION = EventType.getEventType(ConnectionEvent.class);
+    private static final EventType ACCEPT = EventType.getEventType(AcceptEvent.class);
+    private static final EventType CACHE = EventType.getEventType(CacheLookupEvent.class);
+
+    private ServerEvents() {
+    }
+
+    /**
+     * 接收到一个连接；rejectedStatus为0表示已接受，否则是拒绝时返回的状态码（429/503）
+     */
+    public static void accepted(InetAddress remote, int rejectedStatus) {
+        if (!ACCEPT.isEnabled()) {
+            return;
+        }
+        AcceptEvent event = new AcceptEvent();
+        event.remoteAddress = address(remote);
+        event.rejectedStatus = rejectedStatus;
+        event.commit();
+    }
+
+    /**
+     * 连接开始，关闭时交给connectionClosed
+     */
+    static ConnectionEvent beginConnection() {
+        if (!CONNECTION.isEnabled()) {
+            return null;
+        }
+        ConnectionEvent event = new ConnectionEvent();
+        event.begin();
+        return event;
+    }
+
+    static void connectionClosed(ConnectionEvent event, InetAddress remote, int requests) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.remoteAddress = address(remote);
+            event.requests = requests;
+            event.commit();
+        }
+    }
+
+    /**
+     * 请求的第一批数据到达（或者从缓冲区里取出流水线上的下一个请求）时调用
+     */
+    static RequestEvent beginRequest() {
+        if (!REQUEST.isEnabled()) {
+            return null;
+        }
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * 请求处理完成，记下请求的内容（解析器会复用请求对象，不能等到发送完成后再读）
+     * @param parseStart  请求第一批数据到达的时间
+     * @param handleStart 开始处理的时间
+     * @param handleEnd   处理完成、开始发送的时间（均为System.nanoTime()）
+     */
+    static void requestHandled(RequestEvent event, HttpRequest request, HttpResponse response,
+                               long parseStart, long handleStart, long handleEnd) {
+        event.method = request.getMethod();
+        event.path = request.getPath();
+        event.route = request.getRoute();
+        event.status = response.getStatusCode();
+        event.remote = request.getRemoteAddress();
+        event.parseTime = handleStart - parseStart;
+        event.handleTime = handleEnd - handleStart;
+        event.handledAt = handleEnd;
+    }
+
+    /**
+     * 响应发送完成（阻塞模式是写入socket，NIO模式是事件循环把这一批发送完）
+     */
+    static void requestWritten(RequestEvent event) {
+        long now = System.nanoTime();
+        event.end();
+        if (event.shouldCommit()) {
+            event.remoteAddress = address(event.remote);
+            event.writeTime = now - event.handledAt;
+            event.commit();
+        }
+    }
+
+    static CacheLookupEvent beginCacheLookup() {
+        if (!CACHE.isEnabled()) {
+            return null;
+        }
+        CacheLookupEvent event = new CacheLookupEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param size 缓存占用的字节数，文件不存在或不能缓存时为-1
+     */
+    static void cacheLookup(CacheLookupEvent event, String path, boolean hit, long size) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.hit = hit;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    private static String address(InetAddress remote) {
+        return remote == null ? null : remote.getHostAddress();
+    }
+
+    @Name("server.Accept")
+    @Label("Connection Accepted")
+    @Category("HTTP Server")
+    @StackTrace(false)
+    static class AcceptEvent extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Rejected Status")
+        @Description("0 if the connection was admitted, otherwise the status sent before closing it")
+        int rejectedStatus;
+    }
+
+    @Name("server.Connection")
+    @Label("Connection")
+    @Description("Lifetime of an admitted connection, committed when it is closed")
+    @Category("HTTP Server")
+    @StackTrace(false)
+    static class ConnectionEvent extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Requests")
+        int requests;
+    }
+
+    @Name("server.Request")
+    @Label("HTTP Request")
+    @Description("From the first byte of a request until its response is written")
+    @Category("HTTP Server")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class RequestEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Route")
+        String route;
+
+        @Label("Status")
+        int status;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        transient InetAddress remote; // 提交时才转成字符串，低于阈值的请求不用转换
+        transient long handledAt;
+
+        @Label("Parse Time")
+        @Description("Reading the request after its first bytes arrived")
+        @Timespan
+        long parseTime;
+
+        @Label("Handle Time")
+        @Timespan
+        long handleTime;
+
+        @Label("Write Time")
+        @Timespan
+        long writeTime;
+    }
+
+    @Name("server.FileCacheLookup")
+    @Label("Static File Cache Lookup")
+    @Category("HTTP Server")
+    @StackTrace(false)
+    @Enabled(false)
+    static class CacheLookupEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Hit")
+        boolean hit;
+
+        @Label("Cached Size")
+        @Description("Bytes held in the cache for this file, -1 if it is missing or too large to cache")
+        @DataAmount
+        long size;
+    }
+}
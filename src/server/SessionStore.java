@@ -0,0 +1,161 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 登录会话：令牌 -> 用户名
+ * 令牌是32字节随机数（Base64url），校验只是一次哈希表查找加过期时间比较，O(1)。
+ * 过期用哈希时间轮：每个会话按到期的tick放进轮子上对应的桶里，后台线程每个tick只处理当前这一个桶，
+ * 不需要扫描全部会话，也不需要每个会话一个定时器。到期时间超出轮子一圈的会话留在桶里等下一圈。
+ * 桶是并发的哈希集合，注销时按引用删除是O(1)：默认配置下一个桶里是同一秒内创建的所有会话，
+ * 有效期超过轮子一圈时还有其他圈的会话，桶可能很大。
+ */
+public class SessionStore {
+    private static final int MAX_WHEEL_SIZE = 4096;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<Session>[] wheel;
+    private final int mask;
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final long startMillis;
+    private volatile long currentTick; // 已经处理过的最后一个tick，只由expire()修改
+    private final SecureRandom random = new SecureRandom();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /**
+     * @param startTicker 是否启动后台线程；为false时由调用者调用expire（基准测试用）
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SessionStore(long ttlMillis, long tickMillis, boolean startTicker) {
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        this.startMillis = System.currentTimeMillis();
+        // 一圈覆盖整个有效期时每个会话只会被访问一次
+        int size = Integer.highestOneBit((int) Math.min(MAX_WHEEL_SIZE, ttlMillis / tickMillis + 1) * 2 - 1);
+        this.wheel = new Set[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.mask = size - 1;
+
+        if (startTicker) {
+            ticker = new Thread(() -> {
+                while (running) {
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    expire(System.currentTimeMillis());
+                }
+            }, "session-expiry");
+            ticker.setDaemon(true);
+            ticker.start();
+        } else {
+            ticker = null;
+        }
+    }
+
+    /**
+     * 创建会话，返回令牌
+     */
+    public String create(String username) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        // 向上取整，保证不会提前过期；已经处理过的tick不能再放
+        long deadlineTick = Math.max((expiresAt - startMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Session session = new Session(token, username, expiresAt, deadlineTick);
+        sessions.put(token, session);
+        wheel[(int) (deadlineTick & mask)].add(session);
+        return token;
+    }
+
+    /**
+     * 校验令牌，返回用户名；令牌不存在或已过期时返回null
+     */
+    public String validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null || session.expiresAt <= System.currentTimeMillis()) {
+            return null; // 已过期但还没轮到它的桶
+        }
+        return session.username;
+    }
+
+    /**
+     * 注销，同时从时间轮的桶里删除，不让已注销的会话一直留到原来的到期时间
+     */
+    public boolean invalidate(String token) {
+        if (token == null) {
+            return false;
+        }
+        Session session = sessions.remove(token);
+        if (session == null) {
+            return false;
+        }
+        wheel[(int) (session.deadlineTick & mask)].remove(session);
+        return true;
+    }
+
+    /**
+     * 处理到now为止所有到期的tick，返回删除的会话数；后台线程每个tick调用一次
+     */
+    public synchronized int expire(long now) {
+        long target = (now - startMillis) / tickMillis;
+        int expired = 0;
+        while (currentTick < target) {
+            long tick = currentTick + 1;
+            Iterator<Session> bucket = wheel[(int) (tick & mask)].iterator();
+            while (bucket.hasNext()) {
+                Session session = bucket.next();
+                if (session.deadlineTick <= tick) {
+                    bucket.remove();
+                    if (sessions.remove(session.token, session)) {
+                        expired++;
+                    }
+                }
+            }
+            currentTick = tick;
+        }
+        return expired;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void shutdown() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+    }
+
+    private static final class Session {
+        final String token;
+        final String username;
+        final long expiresAt;
+        final long deadlineTick;
+
+        Session(String token, String username, long expiresAt, long deadlineTick) {
+            this.token = token;
+            this.username = username;
+            this.expiresAt = expiresAt;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package server;
+
+import shared.HttpUtils;
+import shared.HttpConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 静态文件内存缓存
+ * 按字节预算做LRU淘汰，缓存文件内容和预先计算好的响应头；
+ * 后台线程通过WatchService监听webroot，文件变化时使对应条目失效。
+ */
+public class StaticFileCache {
+    private final Path root;
+    private final long maxBytes;
+    private final long maxFileSize;
+
+    // accessOrder=true 的LinkedHashMap即LRU，所有访问都在this上同步
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes = 0;
+
+    // 每次失效都递增，用于丢弃读取期间文件已被修改的结果
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder(); // 不存在、是目录或超过单文件上限，不计入未命中
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    // 不进入内容缓存、按内容哈希的大文件只缓存ETag，以路径+修改时间+大小为键，避免重复计算哈希
+    private static final int MAX_LARGE_FILE_TAGS = 4096;
+    private final long hashMaxSize = HttpConstants.ETAG_HASH_MAX_SIZE;
+    private final ConcurrentHashMap<Path, FileTag> largeFileTags = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+
+    public StaticFileCache(Path root, long maxBytes, long maxFileSize) {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        startWatcher();
+    }
+
+    /**
+     * 查找缓存的文件，未命中时从磁盘读取并放入缓存
+     * 文件不存在、是目录或超过单文件大小上限时返回null
+     */
+    public CachedFile get(String path) throws IOException {
+        return lookup(path).getCached();
+    }
+
+    /**
+     * 查找缓存的文件；不能缓存时一并返回这次读到的文件属性，调用方直接从磁盘发送时不用再读一次
+     * 只有能放进缓存的文件才计入未命中，大文件和不存在的路径单独计数，不会拉低命中率
+     */
+    FileLookup lookup(String path) throws IOException {
+        ServerEvents.CacheLookupEvent event = ServerEvents.beginCacheLookup();
+        CachedFile cached;
+        synchronized (this) {
+            cached = entries.get(path);
+        }
+        if (cached != null) {
+            hits.increment();
+            ServerEvents.cacheLookup(event, path, true, cached.getSize());
+            return new FileLookup(cached, null, null);
+        }
+        FileLookup result = load(path);
+        if (result.getCached() != null) {
+            misses.increment();
+        } else {
+            uncacheable.increment();
+        }
+        ServerEvents.cacheLookup(event, path, false, result.getCached() == null ? -1 : result.getCached().getSize());
+        return result;
+    }
+
+    /**
+     * 未命中：只读一次文件属性，能缓存的从磁盘读取并放入缓存
+     */
+    private FileLookup load(String path) throws IOException {
+        Path file = resolve(path);
+        if (file == null) {
+            return new FileLookup(null, null, null);
+        }
+        long generation = invalidationCount.get();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return new FileLookup(null, file, null); // 文件不存在
+        }
+        if (attributes.isDirectory() || attributes.size() > maxFileSize) {
+            return new FileLookup(null, file, attributes);
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        CachedFile cached = new CachedFile(content, HttpUtils.getMimeType(path), attributes.lastModifiedTime().toMillis());
+
+        synchronized (this) {
+            // 读取期间发生过失效，结果可能已过期，只返回不缓存
+            if (generation == invalidationCount.get() && cached.getSize() <= maxBytes) {
+                CachedFile previous = entries.put(path, cached);
+                if (previous != null) {
+                    currentBytes -= previous.getSize();
+                }
+                currentBytes += cached.getSize();
+                evictIfNeeded();
+            }
+        }
+        return new FileLookup(cached, file, attributes);
+    }
+
+    /**
+     * 大文件的强ETag：修改时间和大小都没变时直接复用上次的哈希结果。
+     * 超过hashMaxSize的文件不读内容，用修改时间和大小生成（和nginx相同），
+     * 否则第一次请求（包括Range请求）要在请求线程上先把整个文件读一遍才能发出第一个字节
+     */
+    public String getEntityTag(Path file, BasicFileAttributes attributes) throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (attributes.size() > hashMaxSize) {
+            return '"' + Long.toHexString(lastModified) + '-' + Long.toHexString(attributes.size()) + '"';
+        }
+        FileTag tag = largeFileTags.get(file);
+        if (tag != null && tag.lastModified == lastModified && tag.size == attributes.size()) {
+            return tag.etag;
+        }
+
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String etag = formatEntityTag(digest.digest());
+        if (largeFileTags.size() >= MAX_LARGE_FILE_TAGS) {
+            // 满了只删掉任意一个，不让其余文件都重新计算哈希
+            Iterator<Path> any = largeFileTags.keySet().iterator();
+            if (any.hasNext()) {
+                largeFileTags.remove(any.next());
+            }
+        }
+        largeFileTags.put(file, new FileTag(lastModified, attributes.size(), etag));
+        return etag;
+    }
+
+    /**
+     * 内容哈希（SHA-256前128位）作为强ETag
+     */
+    static String computeEntityTag(byte[] content) {
+        MessageDigest digest = newDigest();
+        return formatEntityTag(digest.digest(content));
+    }
+
+    private static String formatEntityTag(byte[] hash) {
+        StringBuilder sb = new StringBuilder(34).append('"');
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return sb.append('"').toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 把请求路径映射到webroot下的文件，越界时返回null
+     */
+    Path resolve(String path) {
+        Path file = root.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CachedFile>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, CachedFile> eldest = iterator.next();
+            currentBytes -= eldest.getValue().getSize();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(String path) {
+        invalidationCount.incrementAndGet();
+        CachedFile removed = entries.remove(path);
+        if (removed != null) {
+            currentBytes -= removed.getSize();
+            invalidations.increment();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidationCount.incrementAndGet();
+        invalidations.add(entries.size());
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getUncacheable() { return uncacheable.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getInvalidations() { return invalidations.sum(); }
+    public synchronized long getCurrentBytes() { return currentBytes; }
+    public synchronized int getEntryCount() { return entries.size(); }
+
+    @Override
+    public String toString() {
+        return "StaticFileCache{entries=" + getEntryCount() + ", bytes=" + getCurrentBytes() +
+                ", hits=" + getHits() + ", misses=" + getMisses() + ", uncacheable=" + getUncacheable() +
+                ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "}";
+    }
+
+    /**
+     * 监听webroot及其子目录，文件被创建、修改或删除时使缓存失效
+     */
+    private void startWatcher() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerTree(root);
+        } catch (IOException e) {
+            System.err.println("无法监听webroot，静态文件缓存将不会自动失效: " + e.getMessage());
+            return;
+        }
+
+        Thread watcher = new Thread(this::watchLoop, "static-cache-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void registerTree(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll(); // 事件丢失，无法确定哪些文件变化了
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        registerTree(changed);
+                    }
+                    invalidatePrefix(changed);
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停止监听
+        } catch (IOException e) {
+            System.err.println("webroot监听出错，清空静态文件缓存: " + e.getMessage());
+            invalidateAll();
+        }
+    }
+
+    /**
+     * 使一个文件（或目录下所有文件）对应的缓存条目失效
+     */
+    private void invalidatePrefix(Path changed) {
+        String path = "/" + root.relativize(changed).toString().replace('\\', '/');
+        synchronized (this) {
+            invalidate(path);
+            String dirPrefix = path + "/";
+            Iterator<Map.Entry<String, CachedFile>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, CachedFile> entry = iterator.next();
+                if (entry.getKey().startsWith(dirPrefix)) {
+                    currentBytes -= entry.getValue().getSize();
+                    iterator.remove();
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭webroot监听时出错: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * 缓存的文件内容及预先计算好的响应头
+ */
+class CachedFile {
+    private final byte[] content;
+    private final String contentType;
+    private final String contentLength;
+    private final long lastModified;
+    private final String lastModifiedHeader;
+    private final String etag;
+
+    // 压缩变体：可压缩类型在放入缓存时生成一次，不值得压缩时为null
+    private final byte[] gzipContent;
+    private final String gzipContentLength;
+    private final String gzipEtag;
+
+    CachedFile(byte[] content, String contentType, long lastModified) throws IOException {
+        this.content = content;
+        this.contentType = contentType;
+        this.contentLength = String.valueOf(content.length);
+        this.lastModified = lastModified;
+        this.lastModifiedHeader = lastModified > 0 ? HttpUtils.formatHttpDate(lastModified) : null;
+        this.etag = StaticFileCache.computeEntityTag(content);
+
+        byte[] gzip = null;
+        if (HttpUtils.isCompressible(contentType) && content.length >= HttpConstants.MIN_COMPRESS_SIZE) {
+            gzip = gzip(content);
+            if (gzip.length >= content.length) {
+                gzip = null; // 压缩后没有变小
+            }
+        }
+        this.gzipContent = gzip;
+        this.gzipContentLength = gzip != null ? String.valueOf(gzip.length) : null;
+        // 不同的表示必须有不同的强ETag
+        this.gzipEtag = gzip != null ? etag.substring(0, etag.length() - 1) + "-gzip\"" : null;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    byte[] getContent() { return content; }
+    String getContentType() { return contentType; }
+    String getContentLength() { return contentLength; }
+    long getLastModified() { return lastModified; }
+    String getLastModifiedHeader() { return lastModifiedHeader; }
+    String getEntityTag() { return etag; }
+    boolean hasGzip() { return gzipContent != null; }
+    byte[] getGzipContent() { return gzipContent; }
+    String getGzipContentLength() { return gzipContentLength; }
+    String getGzipEntityTag() { return gzipEtag; }
+    long getSize() { return content.length + (gzipContent != null ? gzipContent.length : 0); }
+}
+
+/**
+ * 一次缓存查找的结果：命中或能缓存时cached不为null；
+ * 不能缓存时file为解析出的文件（越界时为null），attributes为文件属性（不存在时为null）
+ */
+class FileLookup {
+    private final CachedFile cached;
+    private final Path file;
+    private final BasicFileAttributes attributes;
+
+    FileLookup(CachedFile cached, Path file, BasicFileAttributes attributes) {
+        this.cached = cached;
+        this.file = file;
+        this.attributes = attributes;
+    }
+
+    CachedFile getCached() { return cached; }
+    Path getFile() { return file; }
+    BasicFileAttributes getAttributes() { return attributes; }
+}
+
+/**
+ * 大文件ETag缓存条目
+ */
+class FileTag {
+    final long lastModified;
+    final long size;
+    final String etag;
+
+    FileTag(long lastModified, long size, String etag) {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,13 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 流式响应体
+ * 处理器向out增量写入，不需要事先知道总长度；
+ * 发送时使用Transfer-Encoding: chunked，内存占用只有一个分块缓冲区
+ */
+public interface StreamingBody {
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -1,47 +1,178 @@
 package server;
 
-import java.util.HashMap;
+import shared.HttpConstants;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 用户管理，可以被多个工作线程同时调用
+ * 只保存加盐的PBKDF2凭据，不保存明文密码；注册前先在pending里占住用户名，保证同名用户只有一个能成功，
+ * 占住期间用户还不在用户表里，登录和快照都看不到它，持久化成功后才放进用户表。
+ * 哈希计算放在专用的有界线程池里：池和队列都满时立即抛出RejectedExecutionException，
+ * 调用方应返回503，而不是让登录高峰占满处理静态文件的工作线程。
+ * 配置了数据目录时，注册的用户写入UserStore，确认持久化后才算注册成功，重启后从快照和日志恢复。
+ */
 public class UserManager {
-    private Map<String, String> users; // 用户名 -> 密码
-    
+    private final UserTable users; // 用户名 -> 凭据
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor hashPool;
+    private final UserStore store; // 为null时只保存在内存中
+    private final Set<String> pending = ConcurrentHashMap.newKeySet(); // 正在注册（哈希、持久化中）的用户名
+    private final Map<String, String> testUsers; // 内置的测试用户，不放进用户表，不会被持久化
+    // 用户不存在时也做一次同样代价的校验，避免通过响应时间判断用户名是否存在
+    private final String dummyCredential;
+
     public UserManager() {
-        this.users = new HashMap<>();
-        // 添加一些测试用户
-        users.put("admin", "admin123");
-        users.put("test", "test123");
+        this(UserTable.create(HttpConstants.USER_TABLE), new PasswordHasher(HttpConstants.PASSWORD_HASH_ITERATIONS),
+                HttpConstants.HASH_THREADS, HttpConstants.HASH_QUEUE_SIZE,
+                HttpConstants.USER_STORE_DIR.isEmpty() ? null : Paths.get(HttpConstants.USER_STORE_DIR));
+    }
+
+    /**
+     * @param users    用户表实现（见UserTable.create）
+     * @param storeDir 用户数据目录，为null时不持久化
+     */
+    public UserManager(UserTable users, PasswordHasher hasher, int hashThreads, int queueSize, Path storeDir) {
+        this.users = users;
+        this.hasher = hasher;
+        AtomicInteger threadId = new AtomicInteger();
+        this.hashPool = new ThreadPoolExecutor(hashThreads, hashThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.dummyCredential = hasher.hash("dummy-password");
+
+        if (storeDir != null) {
+            store = new UserStore(storeDir, UserStore.FsyncPolicy.parse(HttpConstants.USER_STORE_FSYNC),
+                    HttpConstants.USER_STORE_FSYNC_INTERVAL, HttpConstants.USER_STORE_COMPACT_BYTES, users);
+            try {
+                store.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open user store " + storeDir, e);
+            }
+        } else {
+            store = null;
+        }
+
+        // 添加一些测试用户（不写入用户表，也就不会进入日志和快照）
+        this.testUsers = Map.of("admin", hasher.hash("admin123"), "test", hasher.hash("test123"));
     }
-    
+
     /**
      * 用户注册
+     * @throws RejectedExecutionException 哈希线程池已满
+     * @throws UncheckedIOException 写入用户数据失败
      */
     public boolean registerUser(String username, String password) {
-        if (users.containsKey(username)) {
-            return false; // 用户名已存在
+        if (exists(username)) {
+            return false; // 用户名已存在，不用浪费一次哈希
+        }
+        if (!pending.add(username)) {
+            return false; // 别的请求正在注册同一个用户名
+        }
+        try {
+            // 注册完成的请求先放进用户表再释放占位，所以占位成功后再查一次就不会漏掉它
+            if (exists(username)) {
+                return false;
+            }
+            String credential = runHash(() -> hasher.hash(password));
+            if (store != null) {
+                try {
+                    store.append(username, credential); // 持久化后由UserStore放进用户表
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to persist user " + username, e);
+                }
+            } else {
+                users.put(username, credential);
+            }
+        } finally {
+            pending.remove(username);
         }
-        users.put(username, password);
-        System.out.println("User registered: " + username);
+        Log.info("User registered: " + username);
         return true;
     }
-    
+
     /**
      * 用户登录
+     * @throws RejectedExecutionException 哈希线程池已满
      */
     public boolean loginUser(String username, String password) {
-        String storedPassword = users.get(username);
-        if (storedPassword != null && storedPassword.equals(password)) {
-            System.out.println("User logged in: " + username);
+        String stored = lookup(username);
+        String credential = stored != null ? stored : dummyCredential;
+        boolean matches = runHash(() -> hasher.verify(password, credential));
+        if (stored != null && matches) {
+            Log.debug("User logged in: " + username);
             return true;
         }
-        System.out.println("Login failed for user: " + username);
+        Log.debug("Login failed for user: " + username);
         return false;
     }
-    
+
     /**
      * 获取用户数量（用于测试）
      */
     public int getUserCount() {
-        return users.size();
+        int count = users.size();
+        for (String username : testUsers.keySet()) {
+            if (!users.containsKey(username)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        hashPool.shutdownNow();
+        if (store != null && store.isOpen()) {
+            try {
+                store.close();
+                System.out.println("User store: " + store);
+            } catch (IOException e) {
+                System.err.println("Error closing user store: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 已注册用户的凭据，用户表里没有时再查内置的测试用户
+     */
+    private String lookup(String username) {
+        String stored = users.get(username);
+        return stored != null ? stored : testUsers.get(username);
+    }
+
+    private boolean exists(String username) {
+        return lookup(username) != null;
+    }
+
+    /**
+     * 在哈希线程池中执行并等待结果
+     */
+    private <T> T runHash(Callable<T> task) {
+        Future<T> future = hashPool.submit(task); // 队列满时抛出RejectedExecutionException
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,531 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 用户数据的持久化：快照 + 追加写的预写日志
+ * 注册记录由调用线程编码好放进队列，单独的写线程把队列中积累的记录一次写出，
+ * 按fsync策略每批只做一次fsync（组提交），然后把这一批用户放进用户表、唤醒所有调用者。
+ * 写入用户表和切换日志都在写线程里进行，所以已经进入旧日志的用户一定会出现在之后的快照里。
+ * 日志超过阈值时写线程切换到新的日志文件，后台线程把内存中的用户表写成新快照，
+ * 成功后删除旧日志。启动时先加载快照，再重放旧日志（如果有）和当前日志。
+ *
+ * 日志记录: [int 长度][int CRC32][writeUTF 用户名][writeUTF 凭据]，恢复时遇到不完整或校验失败的记录就截断。
+ * 快照: [int MAGIC][int 版本] 若干条(用户名,凭据) [空用户名结束][int 条数][long CRC32]
+ * 只有注册操作，重放是幂等的put，所以日志和快照有重叠不影响结果。
+ */
+public class UserStore {
+    private static final int SNAPSHOT_MAGIC = 0x55534E50; // "USNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_RECORD = 64 * 1024;
+    private static final long COMPACTION_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1); // 快照失败后自动重试的间隔
+
+    /**
+     * fsync策略
+     * ALWAYS: 每批fsync后才返回，确认的注册不会丢；
+     * INTERVAL: 写入后立即返回，后台按间隔fsync，宕机最多丢失一个间隔；
+     * NEVER: 只写入操作系统缓存，由操作系统决定何时落盘
+     */
+    public enum FsyncPolicy {
+        ALWAYS, INTERVAL, NEVER;
+
+        public static FsyncPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Path dir;
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path oldLogFile;
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalMillis;
+    private final long compactBytes;
+    private final UserTable users;
+
+    private final LinkedBlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private FileChannel log;
+    private long logBytes;
+    // 入队和关闭/失败的判断在这把锁下进行，写线程退出前清空队列时不会漏掉刚放进去的记录
+    private final Object submitLock = new Object();
+    private volatile boolean closed = true; // 只由open()/close()修改
+    private volatile IOException failure;   // 写线程出错后不再接受新记录，但仍要由close()释放日志文件
+    private volatile Thread compactor;
+    private volatile long retryAfter = System.nanoTime(); // 快照失败后，在这个时间（System.nanoTime()）之前不自动重试
+    private Thread writer;
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /**
+     * @param users 用户表，恢复和追加的记录写入其中，压缩时从中生成快照
+     */
+    public UserStore(Path dir, FsyncPolicy policy, long fsyncIntervalMillis, long compactBytes,
+                     UserTable users) {
+        this.dir = dir;
+        this.snapshotFile = dir.resolve("users.snapshot");
+        this.logFile = dir.resolve("users.log");
+        this.oldLogFile = dir.resolve("users.log.old");
+        this.policy = policy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.compactBytes = compactBytes;
+        this.users = users;
+    }
+
+    /**
+     * 恢复数据并启动写线程
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve("users.snapshot.tmp")); // 上次压缩中途退出留下的
+        long start = System.nanoTime();
+        int fromSnapshot = loadSnapshot();
+        int replayed = 0;
+        if (Files.exists(oldLogFile)) {
+            // 上次压缩没有完成：旧日志还没有并入快照
+            replayed += replay(oldLogFile);
+        }
+        replayed += replay(logFile);
+        System.out.printf("User store recovered: %d users (%d from snapshot, %d log records) in %d ms%n",
+                users.size(), fromSnapshot, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        log = openLog();
+        logBytes = log.size();
+        closed = false;
+        writer = new Thread(this::writeLoop, "user-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+        if (Files.exists(oldLogFile)) {
+            startCompaction(null);
+        }
+    }
+
+    /**
+     * 追加一条注册记录，按fsync策略等到写入（或落盘）后放进用户表再返回；
+     * 失败时用户表不变。调用方负责保证用户名不重复
+     */
+    public void append(String username, String credential) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + credential.length());
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeUTF(username);
+        data.writeUTF(credential);
+        if (payload.size() > MAX_RECORD) {
+            throw new IOException("User record too large: " + payload.size() + " bytes");
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+        record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+        await(submit(new Append(record, username, credential)));
+    }
+
+    /**
+     * 立即切换日志并生成快照，等快照写完后返回
+     */
+    public void snapshot() throws IOException {
+        await(submit(new Append(null, null, null)));
+    }
+
+    /**
+     * 写完队列中剩余的记录后关闭；正在进行的压缩会先完成。
+     * 写线程已经因为出错退出时也要调用，释放日志文件
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        synchronized (submitLock) {
+            closed = true;
+        }
+        try {
+            writer.join();
+            Thread pending = compactor;
+            if (pending != null) {
+                pending.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭过程中才进入队列的记录不会再被写出
+        Append pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(new IOException("User store is closed"));
+        }
+        if (log.isOpen()) {
+            try {
+                if (failure == null) {
+                    log.force(false);
+                }
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private CompletableFuture<Void> submit(Append append) throws IOException {
+        synchronized (submitLock) {
+            if (failure != null) {
+                throw new IOException("User store failed", failure);
+            }
+            if (closed) {
+                throw new IOException("User store is closed");
+            }
+            queue.add(append);
+        }
+        return append.done;
+    }
+
+    private static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for user store", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * 写线程：每次取出队列里已有的全部记录（最多MAX_BATCH条）合并写出
+     */
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+        long lastSync = System.currentTimeMillis();
+        boolean dirty = false;
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Append first = queue.poll(policy == FsyncPolicy.INTERVAL ? fsyncIntervalMillis : 100,
+                        TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    int count = 0;
+                    for (Append append : batch) {
+                        if (append.record != null) {
+                            buffers[count++] = append.record;
+                        }
+                    }
+                    if (count > 0) {
+                        logBytes += writeFully(buffers, count);
+                        appends.addAndGet(count);
+                        batches.incrementAndGet();
+                        dirty = true;
+                        if (policy == FsyncPolicy.ALWAYS) {
+                            sync();
+                            dirty = false;
+                            lastSync = System.currentTimeMillis();
+                        }
+                    }
+                    for (Append append : batch) {
+                        if (append.record != null) {
+                            users.put(append.username, append.credential);
+                            append.done.complete(null);
+                        } else {
+                            dirty = false; // 切换日志时已经fsync
+                            rotate(append.done);
+                        }
+                    }
+                    batch.clear();
+                    Arrays.fill(buffers, 0, count, null);
+                }
+                if (policy == FsyncPolicy.INTERVAL && dirty
+                        && System.currentTimeMillis() - lastSync >= fsyncIntervalMillis) {
+                    sync();
+                    dirty = false;
+                    lastSync = System.currentTimeMillis();
+                }
+                if (logBytes >= compactBytes && compactor == null && System.nanoTime() - retryAfter >= 0) {
+                    rotate(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                System.err.println("User store write failed: " + e.getMessage());
+                synchronized (submitLock) {
+                    failure = e; // 之后submit()不会再入队，下面清空队列不会有遗漏
+                }
+                for (Append append : batch) {
+                    append.done.completeExceptionally(e);
+                }
+                batch.clear();
+                Append pending;
+                while ((pending = queue.poll()) != null) {
+                    pending.done.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+    }
+
+    private long writeFully(ByteBuffer[] buffers, int count) throws IOException {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += buffers[i].remaining();
+        }
+        long written = 0;
+        while (written < total) {
+            written += log.write(buffers, 0, count);
+        }
+        return total;
+    }
+
+    private void sync() throws IOException {
+        log.force(false);
+        fsyncs.incrementAndGet();
+    }
+
+    /**
+     * 当前日志fsync后改名为旧日志，打开新日志继续写，由后台线程把用户表写成快照。
+     * 上一次压缩还没有结束时不切换，只等待它完成；上一次快照失败、旧日志还在时也不切换
+     * （改名会覆盖还没有并入快照的旧日志），只重试快照，当前日志继续增长。
+     */
+    private void rotate(CompletableFuture<Void> done) throws IOException {
+        Thread pending = compactor;
+        if (pending != null) {
+            if (done != null) {
+                // 已有压缩在进行：等它结束后再通知调用者
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        pending.join();
+                        done.complete(null);
+                    } catch (InterruptedException e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+            }
+            return;
+        }
+        if (Files.exists(oldLogFile)) {
+            startCompaction(done);
+            return;
+        }
+        sync();
+        log.close();
+        move(logFile, oldLogFile);
+        log = openLog();
+        logBytes = 0;
+        startCompaction(done);
+    }
+
+    private void startCompaction(CompletableFuture<Void> done) {
+        Thread thread = new Thread(() -> {
+            try {
+                writeSnapshot();
+                Files.deleteIfExists(oldLogFile);
+                syncDirectory();
+                snapshots.incrementAndGet();
+                if (done != null) {
+                    done.complete(null);
+                }
+            } catch (IOException e) {
+                // 旧日志还在，下次切换时先重试快照（不会覆盖旧日志），启动时也会重放
+                System.err.println("User store snapshot failed: " + e.getMessage());
+                retryAfter = System.nanoTime() + COMPACTION_RETRY_NANOS;
+                if (done != null) {
+                    done.completeExceptionally(e);
+                }
+            } finally {
+                compactor = null;
+            }
+        }, "user-store-compactor");
+        thread.setDaemon(true);
+        compactor = thread;
+        thread.start();
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path tmp = dir.resolve("users.snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            // 校验和包在缓冲区外面，只计算真正写出的字节
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20), crc));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            int[] count = {0};
+            try {
+                users.forEach((username, credential) -> {
+                    try {
+                        out.writeUTF(username);
+                        out.writeUTF(credential);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeUTF(""); // 结束标记，用户名不会为空
+            out.writeInt(count[0]);
+            out.writeLong(crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        move(tmp, snapshotFile);
+    }
+
+    private int loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(snapshotFile)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 20), crc));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a user snapshot: " + snapshotFile);
+            }
+            int count = 0;
+            String username;
+            while (!(username = in.readUTF()).isEmpty()) {
+                users.put(username, in.readUTF());
+                count++;
+            }
+            int expected = in.readInt();
+            long checksum = crc.getValue();
+            if (expected != count || in.readLong() != checksum) {
+                throw new IOException("Corrupted user snapshot: " + snapshotFile);
+            }
+            return count;
+        } catch (EOFException e) {
+            throw new IOException("Truncated user snapshot: " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * 重放日志，返回记录数；末尾不完整或校验失败的记录被截断
+     */
+    private int replay(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int count = 0;
+        long valid = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 20));
+            long size = channel.size();
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (valid + 8 <= size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD || valid + 8 + length > size) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+                users.put(record.readUTF(), record.readUTF());
+                valid += 8 + length;
+                count++;
+            }
+            if (valid < size) {
+                System.err.println("User store: truncating " + (size - valid) + " trailing bytes of " + file.getFileName());
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+        return count;
+    }
+
+    private FileChannel openLog() throws IOException {
+        FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        syncDirectory();
+        return channel;
+    }
+
+    private void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+    }
+
+    /**
+     * 改名、新建文件后fsync目录，保证目录项落盘（有的平台不支持，忽略）
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows等平台不能打开目录
+        }
+    }
+
+    public boolean isOpen() { return !closed; }
+    public FsyncPolicy getPolicy() { return policy; }
+    public long getAppends() { return appends.get(); }
+    public long getBatches() { return batches.get(); }
+    public long getFsyncs() { return fsyncs.get(); }
+    public long getSnapshots() { return snapshots.get(); }
+
+    @Override
+    public String toString() {
+        return "UserStore{policy=" + policy + ", appends=" + getAppends() + ", batches=" + getBatches() +
+                ", fsyncs=" + getFsyncs() + ", snapshots=" + getSnapshots() + "}";
+    }
+
+    /**
+     * 队列中的一条待写记录；record为null表示请求切换日志并生成快照
+     */
+    private static final class Append {
+        final ByteBuffer record;
+        final String username;
+        final String credential;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Append(ByteBuffer record, String username, String credential) {
+            this.record = record;
+            this.username = username;
+            this.credential = credential;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package server;
+
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+/**
+ * 用户表：用户名 -> 凭据，所有方法都可以被多个线程同时调用
+ * map: ConcurrentHashMap，每个用户一百多字节的对象开销；
+ * offheap: 开放寻址索引 + 堆外紧凑存储，适合千万级用户
+ */
+public interface UserTable {
+    String get(String username);
+
+    /**
+     * 用户名不存在时插入并返回null，存在时返回已有的凭据
+     */
+    String putIfAbsent(String username, String credential);
+
+    /**
+     * 插入或覆盖（恢复数据时使用）
+     */
+    void put(String username, String credential);
+
+    /**
+     * 只有当前凭据等于credential时才删除
+     */
+    boolean remove(String username, String credential);
+
+    int size();
+
+    /**
+     * 遍历所有用户；和并发写入同时进行时是弱一致的，遍历开始前已存在且没有被删除的用户一定会被访问到
+     */
+    void forEach(BiConsumer<String, String> action);
+
+    default boolean containsKey(String username) {
+        return get(username) != null;
+    }
+
+    static UserTable create(String type) {
+        switch (type.trim().toLowerCase(Locale.ROOT)) {
+            case "map":
+                return new MapUserTable();
+            case "offheap":
+                return new OffHeapUserTable();
+            default:
+                throw new IllegalArgumentException("Unknown user table type: " + type);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁直方图（对数-线性分桶，和HdrHistogram的思路相同）
+ * 每个2的幂区间均分成2^subBucketBits个桶，相对误差不超过1/2^subBucketBits；
+ * 默认16个子桶（误差6.25%，覆盖整个long范围只需960个桶），不用事先知道取值范围。
+ * 记录一个值只是一次数组元素自增和一次LongAdder累加，不加锁、不分配内存；
+ * 读取时复制一份快照再计算分位数，可以和写入并发进行（快照不是严格的一个时间点，对监控来说足够）。
+ */
+public class Histogram {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final AtomicLongArray counts;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        this(4);
+    }
+
+    /**
+     * @param subBucketBits 每个2的幂区间分成2^subBucketBits个桶，例如7对应约0.8%的相对误差
+     */
+    public Histogram(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 16) {
+            throw new IllegalArgumentException("subBucketBits must be between 1 and 16: " + subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.counts = new AtomicLongArray((64 - subBucketBits) * subBuckets);
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    /**
+     * 把另一个相同精度的直方图累加进来（用于汇总多个直方图）
+     */
+    public void add(Histogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Histograms have different precision");
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        sum.add(other.sum.sum());
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(this, copy, total, sum.sum());
+    }
+
+    int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // 最高位，>= subBucketBits
+        int sub = (int) (value >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + sub;
+    }
+
+    /**
+     * 桶的代表值：取桶内区间的中点
+     */
+    long valueOf(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = index / subBuckets - 1;
+        long lower = (long) (subBuckets + index % subBuckets) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    /**
+     * 某一时刻的计数副本
+     */
+    public static final class Snapshot {
+        private final Histogram histogram;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(Histogram histogram, long[] counts, long count, long sum) {
+            this.histogram = histogram;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 最大值所在桶的代表值
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return histogram.valueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 分位数（0~1），没有数据时返回0
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return histogram.valueOf(i);
+                }
+            }
+            return histogram.valueOf(counts.length - 1);
+        }
+    }
+}
@@ -5,7 +5,7 @@ import java.util.Map;
 
 public class HttpConstants {
     // 服务器配置
-    public static final int SERVER_PORT = 8022;
+    public static final int SERVER_PORT = Integer.getInteger("http.port", 8022);
     public static final String SERVER_HOST = "localhost";
     
     // HTTP 版本
@@ -16,9 +16,13 @@ public class HttpConstants {
     
     // 缓冲区大小
     public static final int BUFFER_SIZE = 8192;
+
+    // 阻塞模式下每个连接的响应输出缓冲区，流水线上的多个小响应合并成一次写
+    public static final int RESPONSE_BUFFER_SIZE = 32 * 1024;
     
     // 状态码
     public static final int STATUS_OK = 200;
+    public static final int STATUS_PARTIAL_CONTENT = 206;
     public static final int STATUS_MOVED_PERMANENTLY = 301;
     public static final int STATUS_FOUND = 302;
     public static final int STATUS_NOT_MODIFIED = 304;
@@ -26,12 +30,16 @@ public class HttpConstants {
     public static final int STATUS_UNAUTHORIZED = 401;
     public static final int STATUS_NOT_FOUND = 404;
     public static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    public static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+    public static final int STATUS_TOO_MANY_REQUESTS = 429;
     public static final int STATUS_INTERNAL_ERROR = 500;
+    public static final int STATUS_SERVICE_UNAVAILABLE = 503;
     
     // 状态码描述
     public static final Map<Integer, String> STATUS_MESSAGES = new HashMap<>();
     static {
         STATUS_MESSAGES.put(STATUS_OK, "OK");
+        STATUS_MESSAGES.put(STATUS_PARTIAL_CONTENT, "Partial Content");
         STATUS_MESSAGES.put(STATUS_MOVED_PERMANENTLY, "Moved Permanently");
         STATUS_MESSAGES.put(STATUS_FOUND, "Found");
         STATUS_MESSAGES.put(STATUS_NOT_MODIFIED, "Not Modified");
@@ -39,7 +47,10 @@ public class HttpConstants {
         STATUS_MESSAGES.put(STATUS_UNAUTHORIZED, "Unauthorized");
         STATUS_MESSAGES.put(STATUS_NOT_FOUND, "Not Found");
         STATUS_MESSAGES.put(STATUS_METHOD_NOT_ALLOWED, "Method Not Allowed");
+        STATUS_MESSAGES.put(STATUS_RANGE_NOT_SATISFIABLE, "Range Not Satisfiable");
+        STATUS_MESSAGES.put(STATUS_TOO_MANY_REQUESTS, "Too Many Requests");
         STATUS_MESSAGES.put(STATUS_INTERNAL_ERROR, "Internal Server Error");
+        STATUS_MESSAGES.put(STATUS_SERVICE_UNAVAILABLE, "Service Unavailable");
     }
     
     // MIME 类型
@@ -57,9 +68,136 @@ public class HttpConstants {
         MIME_TYPES.put("gif", "image/gif");
     }
     
+    // 静态文件根目录
+    public static final String WEBROOT = System.getProperty("http.webroot", "webroot");
+
+    // 静态文件缓存的总字节预算和单个文件的大小上限
+    public static final long STATIC_CACHE_MAX_BYTES = Long.getLong("http.cache.maxBytes", 64L * 1024 * 1024);
+    public static final long STATIC_CACHE_MAX_FILE_SIZE = Long.getLong("http.cache.maxFileSize", 1024L * 1024);
+
+    // 不超过该大小的大文件用内容哈希作ETag（第一次请求时读一遍文件），更大的文件用修改时间和大小
+    public static final long ETAG_HASH_MAX_SIZE = Long.getLong("http.etag.hashMaxSize", 16L * 1024 * 1024);
+
+    // 超过该大小的静态文件用FileChannel.transferTo发送，不读入堆内存
+    public static final long ZERO_COPY_THRESHOLD = Long.getLong("http.zeroCopyThreshold", 1024L * 1024);
+
+    // 小于该大小的响应体不压缩（压缩收益抵不过开销）
+    public static final int MIN_COMPRESS_SIZE = Integer.getInteger("http.gzip.minSize", 1024);
+
+    // 一个Range请求最多允许的区间数（合并后），超过时忽略Range发送完整内容
+    public static final int MAX_RANGES = 16;
+
+    // NIO模式下流式响应允许积压在内存中、尚未写入socket的最大字节数
+    public static final int STREAM_WRITE_BUFFER = 64 * 1024;
+
     // 默认编码
     public static final String DEFAULT_CHARSET = "UTF-8";
     
     // 长连接超时时间（毫秒）
-    public static final int KEEP_ALIVE_TIMEOUT = 5000;
-}
\ No newline at end of file
+    public static final int KEEP_ALIVE_TIMEOUT = Integer.getInteger("http.keepalive.timeout", 5000);
+
+    // 请求头的最大字节数
+    public static final int MAX_HEADER_SIZE = 16384;
+
+    // 单个请求（请求头+请求体）的最大字节数
+    public static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    // 每个连接最多处理的请求数
+    public static final int MAX_REQUESTS_PER_CONNECTION = 100;
+
+    // 工作线程数量
+    public static final int WORKER_THREADS = Integer.getInteger("http.workers", 10);
+
+    // NIO模式下事件循环线程数量
+    public static final int NIO_EVENT_LOOPS = Integer.getInteger("http.nio.loops",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    // 密码哈希（PBKDF2-HMAC-SHA256）的迭代次数，只影响新生成的凭据，已有凭据按自身记录的次数校验
+    public static final int PASSWORD_HASH_ITERATIONS = Integer.getInteger("http.pbkdf2.iterations", 120_000);
+
+    // 密码哈希专用线程数，和处理静态文件的工作线程分开
+    // 每个登录/注册请求的工作线程要等到哈希完成，被占住的工作线程最多是 哈希线程数+队列长度，
+    // 默认两者合计为工作线程数的一半，登录高峰时另一半工作线程仍然可以处理静态文件
+    public static final int HASH_THREADS = Integer.getInteger("http.hash.threads",
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() / 2, WORKER_THREADS / 4)));
+
+    // 等待哈希的任务上限，超过时直接返回503
+    public static final int HASH_QUEUE_SIZE = Integer.getInteger("http.hash.queue",
+            Math.max(1, WORKER_THREADS / 2 - HASH_THREADS));
+
+    // 用户数据目录（快照和预写日志），设为空字符串时只保存在内存中
+    public static final String USER_STORE_DIR = System.getProperty("http.store.dir", "data");
+
+    // 预写日志的fsync策略: always（每批组提交后fsync）、interval（按间隔fsync）、never（交给操作系统）
+    public static final String USER_STORE_FSYNC = System.getProperty("http.store.fsync", "always");
+
+    // interval策略下两次fsync的间隔（毫秒）
+    public static final int USER_STORE_FSYNC_INTERVAL = Integer.getInteger("http.store.fsyncInterval", 1000);
+
+    // 日志超过该大小时生成新快照并切换日志
+    public static final long USER_STORE_COMPACT_BYTES = Long.getLong("http.store.compactBytes", 64L * 1024 * 1024);
+
+    // 用户表实现: map（ConcurrentHashMap）或 offheap（开放寻址索引 + 堆外紧凑存储，适合千万级用户）
+    public static final String USER_TABLE = System.getProperty("http.users.table", "map");
+
+    // 登录会话的cookie名称和有效期（秒）
+    public static final String SESSION_COOKIE = "SESSIONID";
+    public static final int SESSION_TTL = Integer.getInteger("http.session.ttl", 30 * 60);
+
+    // 会话过期时间轮每个tick的长度（毫秒）
+    public static final int SESSION_TICK = Integer.getInteger("http.session.tick", 1000);
+
+    // 同时打开的连接数上限，超过时新连接直接收到503并被关闭
+    public static final int MAX_CONNECTIONS = Integer.getInteger("http.max.connections", 10_000);
+
+    // 单个IP同时打开的连接数上限，超过时收到429
+    public static final int MAX_CONNECTIONS_PER_IP = Integer.getInteger("http.max.connectionsPerIp", 1000);
+
+    // 工作线程队列中等待处理的请求上限，超过时直接返回503
+    public static final int MAX_QUEUED_WORK = Integer.getInteger("http.max.queue", 1000);
+
+    // 每个IP每秒允许的请求数（令牌桶），0表示不限流
+    public static final double RATE_LIMIT = Double.parseDouble(System.getProperty("http.ratelimit.rate", "0"));
+
+    // 每个IP允许的突发请求数（令牌桶容量）
+    public static final int RATE_LIMIT_BURST = Integer.getInteger("http.ratelimit.burst", 100);
+
+    // 503/429响应中Retry-After头部的秒数
+    public static final int RETRY_AFTER_SECONDS = Integer.getInteger("http.retryAfter", 1);
+
+    // 连接数接近容量时keep-alive空闲超时缩短到的最小值（毫秒）
+    public static final int KEEP_ALIVE_MIN_TIMEOUT = Integer.getInteger("http.keepalive.minTimeout", 500);
+
+    // 从收到第一个字节起读完请求头的期限（毫秒），防止slowloris一点点发送请求头
+    public static final int HEADER_TIMEOUT = Integer.getInteger("http.timeout.header", 10_000);
+
+    // 请求头读完后读完请求体的期限（毫秒）
+    public static final int BODY_TIMEOUT = Integer.getInteger("http.timeout.body", 30_000);
+
+    // 连接超时时间轮每个tick的长度（毫秒）
+    public static final int TIMER_TICK = Integer.getInteger("http.timer.tick", 100);
+
+    // 日志文件，设为空字符串时写到标准输出；超过LOG_MAX_BYTES后轮转，保留LOG_MAX_FILES个旧文件
+    public static final String LOG_FILE = System.getProperty("http.log.file", "logs/server.log");
+    public static final long LOG_MAX_BYTES = Long.getLong("http.log.maxBytes", 64L * 1024 * 1024);
+    public static final int LOG_MAX_FILES = Integer.getInteger("http.log.maxFiles", 5);
+
+    // 日志级别: debug（每个请求的处理细节）、info、warn、error、off
+    public static final String LOG_LEVEL = System.getProperty("http.log.level", "info");
+
+    // 是否为每个请求记录一行访问日志
+    public static final boolean ACCESS_LOG = Boolean.parseBoolean(System.getProperty("http.log.access", "true"));
+
+    // 日志环形缓冲区的条目数，写满时新日志被丢弃
+    public static final int LOG_BUFFER_SIZE = Integer.getInteger("http.log.buffer", 16384);
+
+    // 客户端连接池：每个 host:port 最多打开的连接数
+    public static final int CLIENT_MAX_PER_ROUTE = Integer.getInteger("http.client.maxPerRoute", 8);
+
+    // 客户端空闲连接最长保留时间（毫秒），服务器在Keep-Alive头部声明了更短的超时时以服务器为准
+    public static final int CLIENT_IDLE_TIMEOUT = Integer.getInteger("http.client.idleTimeout", 30_000);
+
+    // 客户端建立连接的超时、连接池用满时等待可用连接的超时（毫秒）
+    public static final int CLIENT_CONNECT_TIMEOUT = Integer.getInteger("http.client.connectTimeout", 5000);
+    public static final int CLIENT_POOL_TIMEOUT = Integer.getInteger("http.client.poolTimeout", 10_000);
+}
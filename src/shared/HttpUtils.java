@@ -3,10 +3,21 @@ package shared;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class HttpUtils {
+    // RFC 1123 日期格式（HTTP-date），日期固定两位
+    private static final DateTimeFormatter HTTP_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
     
     /**
      * 解析查询字符串
@@ -34,6 +45,50 @@ public class HttpUtils {
         return params;
     }
     
+    /**
+     * 从Cookie头部（name1=value1; name2=value2）中取出某个cookie的值
+     */
+    public static String parseCookie(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+        for (String pair : header.split(";")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).trim().equals(name)) {
+                String value = pair.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 转义JSON字符串中的特殊字符（不含两边的引号）
+     */
+    public static String escapeJson(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * 构建查询字符串
      */
@@ -77,6 +132,47 @@ public class HttpUtils {
         return HttpConstants.MIME_TYPES.getOrDefault(ext, "application/octet-stream");
     }
     
+    /**
+     * 是否值得压缩的MIME类型（文本类）
+     */
+    public static boolean isCompressible(String mimeType) {
+        return mimeType != null && (mimeType.startsWith("text/")
+                || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json"));
+    }
+
+    /**
+     * 判断Accept-Encoding是否接受指定的编码（支持q值，q=0表示拒绝）
+     */
+    public static boolean acceptsEncoding(String acceptEncoding, String coding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim();
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                return q > 0; // 明确列出的编码优先于*
+            }
+            if (name.equals("*")) {
+                wildcard = q > 0;
+            }
+        }
+        return wildcard;
+    }
+
     /**
      * 规范化路径，防止目录遍历攻击
      */
@@ -103,4 +199,99 @@ public class HttpUtils {
         
         return path;
     }
-}
\ No newline at end of file
+
+    /**
+     * 格式化为HTTP日期，例如 Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    public static String formatHttpDate(long millis) {
+        return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * 解析HTTP日期，格式错误时返回-1
+     */
+    public static long parseHttpDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析Range头（只支持bytes单位），返回按起始位置排序、合并重叠部分后的区间{start, end}（包含end）
+     * 头部无法识别或区间过多时返回null（忽略Range，发送完整内容）；没有可满足的区间时返回空列表（416）
+     */
+    public static List<long[]> parseByteRanges(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        int specs = 0;
+        for (String part : value.substring(6).split(",")) {
+            String spec = part.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            specs++;
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // 后缀区间：最后N个字节
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < length) {
+                ranges.add(new long[] {start, end});
+            }
+        }
+        if (specs == 0) {
+            return null;
+        }
+
+        if (ranges.size() > 1) {
+            ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+            List<long[]> merged = new ArrayList<>();
+            long[] current = ranges.get(0);
+            for (int i = 1; i < ranges.size(); i++) {
+                long[] next = ranges.get(i);
+                if (next[0] <= current[1] + 1) {
+                    current[1] = Math.max(current[1], next[1]);
+                } else {
+                    merged.add(current);
+                    current = next;
+                }
+            }
+            merged.add(current);
+            ranges = merged;
+        }
+        return ranges.size() > HttpConstants.MAX_RANGES ? null : ranges;
+    }
+}